@@ -0,0 +1,83 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An <code>InputStream</code> reading straight from a <code>ByteBuffer</code>, so data in the
+ * mapped file can be streamed without being copied onto the heap first. Supports mark and reset.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+	private final ByteBuffer buffer;
+	private int mark;
+	
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		this.buffer = buffer.duplicate();
+		this.mark = this.buffer.position();
+	}
+	
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if(off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if(len == 0)
+			return 0;
+		if(!buffer.hasRemaining())
+			return -1;
+		
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+	
+	@Override
+	public long skip(long n) {
+		int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	@Override
+	public void mark(int readlimit) {
+		mark = buffer.position();
+	}
+	
+	@Override
+	public void reset() {
+		buffer.position(mark);
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Turns decompressed canvas data into images. Canvases are stored as 8-bit BGRA, which read
+ * as little endian integers is exactly the packed ARGB layout of <code>TYPE_INT_ARGB</code>,
+ * so the pixels can be copied into the raster in bulk without touching individual channels.
+ */
+public class NXBitmapConverter {
+	
+	private static final DirectColorModel ARGB = (DirectColorModel)ColorModel.getRGBdefault();
+	
+	/**
+	 * Creates a <code>TYPE_INT_ARGB</code> image from BGRA pixels.
+	 * @param pixels the decompressed pixels, read from position 0
+	 * @param width the width of the canvas
+	 * @param height the height of the canvas
+	 * @return an image backed by a copy of <code>pixels</code>
+	 */
+	public static BufferedImage toImage(ByteBuffer pixels, int width, int height) {
+		int[] data = new int[width * height];
+		ByteBuffer source = pixels.duplicate();
+		source.rewind();
+		source.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(data);
+		
+		// Building the raster around our own array keeps the image eligible for acceleration,
+		// unlike grabbing the data buffer of an existing image.
+		DataBufferInt buffer = new DataBufferInt(data, data.length);
+		WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, ARGB.getMasks(), (Point)null);
+		return new BufferedImage(ARGB, raster, false, null);
+	}
+}
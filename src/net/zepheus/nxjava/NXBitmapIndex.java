@@ -0,0 +1,92 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+/**
+ * The dimensions and compressed sizes of every canvas in a file, read from the canvas headers in
+ * one pass without decompressing anything, e.g. to plan texture atlases or memory budgets.
+ * @see NXFile#getBitmapIndex()
+ */
+public final class NXBitmapIndex {
+	
+	// width | height << 16
+	private final int[] sizes;
+	private final int[] lengths;
+	
+	NXBitmapIndex(int[] sizes, int[] lengths) {
+		this.sizes = sizes;
+		this.lengths = lengths;
+	}
+	
+	public int getCount() {
+		return sizes.length;
+	}
+	
+	public int getWidth(int id) {
+		return getSize(id) & 0xFFFF;
+	}
+	
+	public int getHeight(int id) {
+		return getSize(id) >>> 16;
+	}
+	
+	/**
+	 * @return the size of the compressed pixel data in the file
+	 */
+	public int getCompressedSize(int id) {
+		getSize(id);
+		return lengths[id];
+	}
+	
+	/**
+	 * @return the size of the decoded pixels, 4 bytes for each
+	 */
+	public long getDecodedSize(int id) {
+		return getWidth(id) * (long)getHeight(id) * 4;
+	}
+	
+	public long getTotalCompressedSize() {
+		long total = 0;
+		for(int length : lengths)
+			total += length & 0xFFFFFFFFL;
+		return total;
+	}
+	
+	public long getTotalDecodedSize() {
+		long total = 0;
+		for(int size : sizes)
+			total += (size & 0xFFFF) * (long)(size >>> 16) * 4;
+		return total;
+	}
+	
+	private int getSize(int id) {
+		if(id < 0 || id >= sizes.length)
+			throw new NXException("NX file does not this canvas.");
+		
+		return sizes[id];
+	}
+	
+	int[] getSizes() {
+		return sizes;
+	}
+	
+	int[] getLengths() {
+		return lengths;
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache limited by the summed weight of its values. Hits are lock-free; when the budget is
+ * exceeded, values that weren't read since the hand last passed them are evicted first
+ * (second chance / CLOCK, an approximation of LRU). Insertions and evictions are synchronized.
+ */
+public class NXBoundedCache<V> implements NXCache<V> {
+	
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+	
+	private final ConcurrentHashMap<Integer, Entry<V>> entries = new ConcurrentHashMap<Integer, Entry<V>>();
+	private final NXClock<Entry<V>> clock = new NXClock<Entry<V>>() {
+		@Override
+		protected boolean isOverLimit() {
+			return weight > budget;
+		}
+		
+		@Override
+		protected boolean clearReferenced(Entry<V> entry) {
+			if(!entry.referenced)
+				return false;
+			entry.referenced = false;
+			return true;
+		}
+		
+		@Override
+		protected void evicted(Entry<V> entry) {
+			entries.remove(entry.id, entry);
+			weight -= entry.weight;
+			evictions.increment();
+		}
+		
+		@Override
+		protected void moved(Entry<V> entry, int slot) {
+			entry.slot = slot;
+		}
+	};
+	private final long budget;
+	private volatile long weight;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * Creates a cache.
+	 * @param budget the maximum summed weight, in bytes
+	 */
+	public NXBoundedCache(long budget) {
+		this.budget = budget;
+	}
+	
+	@Override
+	public V get(int id) {
+		Entry<V> entry = entries.get(id);
+		if(entry == null) {
+			misses.increment();
+			return null;
+		}
+		
+		hits.increment();
+		if(!entry.referenced)
+			entry.referenced = true;
+		return entry.value;
+	}
+	
+	@Override
+	public synchronized void put(int id, V value, long weight) {
+		if(weight > budget)
+			return;
+		
+		Entry<V> entry = new Entry<V>(id, value, weight);
+		Entry<V> previous = entries.put(id, entry);
+		if(previous != null) {
+			clock.set(previous.slot, entry);
+			this.weight += weight - previous.weight;
+		} else {
+			clock.add(entry);
+			this.weight += weight;
+		}
+		clock.sweep();
+	}
+	
+	@Override
+	public synchronized void clear() {
+		entries.clear();
+		clock.clear();
+		weight = 0;
+	}
+	
+	public long getBudget() {
+		return budget;
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+	
+	@Override
+	public long getWeight() {
+		return weight;
+	}
+	
+	private static class Entry<V> {
+		private final int id;
+		private final V value;
+		private final long weight;
+		private volatile boolean referenced;
+		// Only touched with the cache's lock held
+		private int slot;
+		
+		private Entry(int id, V value, long weight) {
+			this.id = id;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}
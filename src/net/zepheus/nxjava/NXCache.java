@@ -0,0 +1,54 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+/**
+ * A cache for decoded data, keyed by bitmap or MP3 id. Implementations must be safe for
+ * concurrent use; <code>NXFile</code> calls them without holding any lock.
+ */
+public interface NXCache<V> {
+	
+	/**
+	 * Gets a cached value.
+	 * @param id the bitmap or MP3 id
+	 * @return the cached value, or <code>null</code> on a miss
+	 */
+	V get(int id);
+	
+	/**
+	 * Offers a value to the cache.
+	 * @param id the bitmap or MP3 id
+	 * @param value the decoded value
+	 * @param weight the approximate size of <code>value</code> in bytes
+	 */
+	void put(int id, V value, long weight);
+	
+	void clear();
+	
+	long getHitCount();
+	
+	long getMissCount();
+	
+	long getEvictionCount();
+	
+	/**
+	 * Gets the summed weight of all cached values.
+	 */
+	long getWeight();
+}
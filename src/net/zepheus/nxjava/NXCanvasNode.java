@@ -19,22 +19,57 @@
 package net.zepheus.nxjava;
 
 import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 public class NXCanvasNode extends NXNode {
 
-	private int bitmapId;
-	
-	public NXCanvasNode(String name, NXNode parent, NXFile file, int childCount, int bitmapId) {
-		super(name, parent, file, childCount);
-		this.bitmapId = bitmapId;
+	public NXCanvasNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
 	}
 	
 	@Override
 	public Object getValue() {
-		return getImage();
+		return file.isCanvasParsingEnabled() ? getImage() : null;
 	}
 	
 	public BufferedImage getImage() {
-		return file.getBitmap(bitmapId);
+		return file.getBitmap(getBitmapId());
+	}
+	
+	/**
+	 * Decodes the image without blocking the calling thread.
+	 * @see NXFile#getBitmapAsync(int)
+	 */
+	public CompletableFuture<BufferedImage> getImageAsync() {
+		return file.getBitmapAsync(getBitmapId());
+	}
+	
+	/**
+	 * Decodes the canvas into <code>dst</code> as B, G, R, A bytes, e.g. for a texture upload,
+	 * without creating or caching a <code>BufferedImage</code>.
+	 * @see NXFile#decodeBitmap(int, ByteBuffer)
+	 */
+	public void decodeInto(ByteBuffer dst) {
+		file.decodeBitmap(getBitmapId(), dst);
+	}
+	
+	public int getWidth() {
+		return file.getBitmapWidth(getBitmapId());
+	}
+	
+	public int getHeight() {
+		return file.getBitmapHeight(getBitmapId());
+	}
+	
+	/**
+	 * Reads the size of the compressed pixel data, without decompressing it.
+	 */
+	public int getCompressedSize() {
+		return file.getBitmapCompressedSize(getBitmapId());
+	}
+	
+	public int getBitmapId() {
+		return readData(0);
 	}
 }
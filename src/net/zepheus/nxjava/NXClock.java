@@ -0,0 +1,108 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.ArrayList;
+
+/**
+ * A second chance (CLOCK) ring, an approximation of LRU that needs no bookkeeping on hits:
+ * readers only set a referenced bit, and the hand clears it or evicts the entry when the owner
+ * goes over its limit. The owner's lock must be held for every call.
+ */
+abstract class NXClock<E> {
+	
+	private final ArrayList<E> ring = new ArrayList<E>();
+	private int hand;
+	
+	/**
+	 * @return whether the owner is over its limit, checked before every step of the hand
+	 */
+	protected abstract boolean isOverLimit();
+	
+	/**
+	 * Clears the referenced bit of an entry.
+	 * @return whether it was set, in which case the entry survives this turn
+	 */
+	protected abstract boolean clearReferenced(E entry);
+	
+	/**
+	 * Called when an entry was taken off the ring.
+	 */
+	protected abstract void evicted(E entry);
+	
+	/**
+	 * Called when an entry was put in a slot, owners that replace entries in place remember it.
+	 */
+	protected void moved(E entry, int slot) {
+	}
+	
+	void add(E entry) {
+		moved(entry, ring.size());
+		ring.add(entry);
+	}
+	
+	void set(int slot, E entry) {
+		ring.set(slot, entry);
+		moved(entry, slot);
+	}
+	
+	E get(int slot) {
+		return ring.get(slot);
+	}
+	
+	boolean contains(E entry) {
+		return ring.contains(entry);
+	}
+	
+	int size() {
+		return ring.size();
+	}
+	
+	/**
+	 * Evicts entries until the owner is within its limit.
+	 * @return the number of evicted entries
+	 */
+	int sweep() {
+		int evicted = 0;
+		// Every entry survives at most one turn, so two turns of the hand always get under the limit
+		int steps = ring.size() * 2;
+		while(isOverLimit() && steps-- > 0 && !ring.isEmpty()) {
+			if(hand >= ring.size())
+				hand = 0;
+			
+			E entry = ring.get(hand);
+			if(clearReferenced(entry)) {
+				hand++;
+			} else {
+				// Swap the last entry into this slot, the hand then looks at it next
+				E last = ring.remove(ring.size() - 1);
+				if(hand < ring.size())
+					set(hand, last);
+				evicted(entry);
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+	
+	void clear() {
+		ring.clear();
+		hand = 0;
+	}
+}
@@ -21,10 +21,74 @@ package net.zepheus.nxjava;
 import java.nio.ByteBuffer;
 import com.github.decster.jnicompressions.Lz4Compression;
 
+/**
+ * Decompresses canvas data with either the native LZ4 binding or the pure Java decoder.
+ * The implementation is picked with the <code>nxjava.lz4</code> system property
+ * (<code>native</code> or <code>java</code>) or {@link #setNative(boolean)}; by default
+ * the native binding is used when its library loads.
+ */
 public class NXCompression {
-	private static final Lz4Compression COMPRESSOR = new Lz4Compression();
-
+	private static final Lz4Compression COMPRESSOR = loadNative();
+	private static volatile boolean useNative = COMPRESSOR != null && !"java".equals(System.getProperty("nxjava.lz4"));
+	
+	private static Lz4Compression loadNative() {
+		if("java".equals(System.getProperty("nxjava.lz4")))
+			return null;
+		try {
+			return new Lz4Compression();
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Decompresses using the native binding's convention, where the block is preceded by a 4 byte
+	 * header that <code>inputOffset</code> and <code>length</code> include.
+	 */
 	public static void decompress(ByteBuffer input, long inputOffset, long length, ByteBuffer output, int outputOffset) {
-		COMPRESSOR.DecompressDirect(input, (int) inputOffset, (int) length, output, outputOffset);
+		decompressBlock(input, inputOffset + 4, (int)length - 4, output, outputOffset);
+	}
+	
+	/**
+	 * Decompresses a raw LZ4 block. The native binding is only used when both buffers are direct.
+	 * @param input the buffer holding the compressed block
+	 * @param offset the offset of the block in <code>input</code>
+	 * @param length the compressed length of the block
+	 * @param output the buffer to decompress into
+	 * @param outputOffset the offset in <code>output</code> to decompress to
+	 */
+	public static void decompressBlock(ByteBuffer input, long offset, int length, ByteBuffer output, int outputOffset) {
+		if(useNative && input.isDirect() && output.isDirect()) {
+			// The binding skips a 4 byte header it never reads, so point it 4 bytes ahead of the block
+			COMPRESSOR.DecompressDirect(input, (int)offset - 4, length + 4, output, outputOffset);
+		} else {
+			NXLz4Decompressor.decompress(input, (int)offset, length, output, outputOffset);
+		}
+	}
+	
+	/**
+	 * Allocates an output buffer suited to the selected implementation: direct for the native
+	 * binding, on the heap for the Java decoder.
+	 */
+	public static ByteBuffer allocate(int size) {
+		return useNative ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+	
+	public static boolean isNativeAvailable() {
+		return COMPRESSOR != null;
+	}
+	
+	public static boolean isNative() {
+		return useNative;
+	}
+	
+	/**
+	 * Selects the native binding or the pure Java decoder.
+	 * @throws NXException if the native binding is requested but couldn't be loaded
+	 */
+	public static void setNative(boolean enabled) {
+		if(enabled && COMPRESSOR == null)
+			throw new NXException("The native LZ4 library is not available.");
+		useNative = enabled;
 	}
 }
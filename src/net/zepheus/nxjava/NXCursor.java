@@ -0,0 +1,206 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, allocation-free view over the node table. A cursor points at one node at a time
+ * and reads its fields straight from the table, so walking the whole file doesn't create a
+ * single <code>NXNode</code>. Cursors are cheap to create but not thread-safe.
+ * The getters for a specific type, such as {@link #getX()} or {@link #getBitmapId()}, read the
+ * data of the current node as is, so check {@link #getType()} before calling them.
+ */
+public class NXCursor {
+	
+	private final NXFile file;
+	private final SeekableLittleEndianAccessor table;
+	private int id;
+	private long position;
+	
+	private int[] parents = new int[16];
+	private int depth;
+	
+	NXCursor(NXFile file) {
+		this.file = file;
+		this.table = file.getNodeTable();
+		moveTo(0);
+	}
+	
+	/**
+	 * Moves the cursor to the node with the given id and forgets the parent chain.
+	 * @param id the id of the node in the node table
+	 * @return this cursor
+	 */
+	public NXCursor moveTo(int id) {
+		if(id < 0 || id >= file.getHeader().getNodeCount())
+			throw new NXException("Invalid node id.");
+		this.id = id;
+		this.position = file.getNodePosition(id);
+		this.depth = 0;
+		return this;
+	}
+	
+	/**
+	 * Moves the cursor to the child at <code>index</code> of the current node.
+	 * @param index the on-disk index of the child
+	 * @return <code>false</code> if the current node has no such child
+	 */
+	public boolean moveToChild(int index) {
+		if(index < 0 || index >= getChildCount())
+			return false;
+		push(getFirstChildId() + index);
+		return true;
+	}
+	
+	/**
+	 * Moves the cursor to the child of the current node with the given name.
+	 * @param name the name of the child
+	 * @return <code>false</code> if the current node has no such child
+	 */
+	public boolean moveToChild(String name) {
+		int first = getFirstChildId();
+		int count = getChildCount();
+		for(int i = 0; i < count; i++) {
+			if(file.equalsString(table.getInt(file.getNodePosition(first + i)), name)) {
+				push(first + i);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Moves the cursor back to the node it descended from.
+	 * @return <code>false</code> if the cursor didn't descend into the current node
+	 */
+	public boolean moveToParent() {
+		if(depth == 0)
+			return false;
+		setId(parents[--depth]);
+		return true;
+	}
+	
+	private void push(int child) {
+		if(depth == parents.length)
+			parents = Arrays.copyOf(parents, depth * 2);
+		parents[depth++] = id;
+		setId(child);
+	}
+	
+	private void setId(int id) {
+		this.id = id;
+		this.position = file.getNodePosition(id);
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	public int getDepth() {
+		return depth;
+	}
+	
+	public int getNameId() {
+		return table.getInt(position);
+	}
+	
+	public String getName() {
+		return file.getString(getNameId());
+	}
+	
+	public int getChildCount() {
+		return table.getUShort(position + 4);
+	}
+	
+	public int getType() {
+		return table.getUShort(position + 6);
+	}
+	
+	public int getFirstChildId() {
+		return table.getInt(position + 16);
+	}
+	
+	/**
+	 * Reads the value as an integer, like {@link NXNode#getLong(long)}: integer nodes return their
+	 * value, double nodes their truncated value and string nodes their parsed value.
+	 * @param def the value returned when the current node has no numeric value
+	 */
+	public long getLong(long def) {
+		switch(getType()) {
+		case NXNode.TYPE_INTEGER:
+			return table.getInt(position + 8);
+		case NXNode.TYPE_DOUBLE:
+			return (long)table.getDouble(position + 8);
+		case NXNode.TYPE_STRING:
+			try {
+				return Long.parseLong(getString());
+			} catch (NumberFormatException e) {
+				return def;
+			}
+		default:
+			return def;
+		}
+	}
+	
+	/**
+	 * Reads the value as a double, see {@link #getLong(long)}.
+	 * @param def the value returned when the current node has no numeric value
+	 */
+	public double getDouble(double def) {
+		switch(getType()) {
+		case NXNode.TYPE_INTEGER:
+			return table.getInt(position + 8);
+		case NXNode.TYPE_DOUBLE:
+			return table.getDouble(position + 8);
+		case NXNode.TYPE_STRING:
+			try {
+				return Double.parseDouble(getString());
+			} catch (NumberFormatException e) {
+				return def;
+			}
+		default:
+			return def;
+		}
+	}
+	
+	public int getStringId() {
+		return table.getInt(position + 8);
+	}
+	
+	public String getString() {
+		return getType() == NXNode.TYPE_STRING ? file.getString(getStringId()) : null;
+	}
+	
+	public int getX() {
+		return table.getInt(position + 8);
+	}
+	
+	public int getY() {
+		return table.getInt(position + 12);
+	}
+	
+	public int getBitmapId() {
+		return table.getInt(position + 8);
+	}
+	
+	public int getMP3Id() {
+		return table.getInt(position + 8);
+	}
+}
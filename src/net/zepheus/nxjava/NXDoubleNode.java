@@ -20,20 +20,28 @@ package net.zepheus.nxjava;
 
 public class NXDoubleNode extends NXNode {
 	
-	private double value;
-	public NXDoubleNode(String name, NXNode parent, NXFile file, int childCount, double value) {
-		super(name, parent, file, childCount);
-		this.value = value;
+	public NXDoubleNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
 	}
 	
 	public double getDouble() 
 	{
-		return value;
+		return readDoubleData();
+	}
+	
+	@Override
+	public long getLong(long def) {
+		return (long)getDouble();
+	}
+	
+	@Override
+	public double getDouble(double def) {
+		return getDouble();
 	}
 	
 	@Override
 	public Object getValue()
 	{
-		return value;
+		return getDouble();
 	}
 }
@@ -20,8 +20,8 @@ package net.zepheus.nxjava;
 
 public class NXEmptyNode extends NXNode {
 	
-	public NXEmptyNode(String name, NXNode parent, NXFile file, int childCount) {
-		super(name, parent, file, childCount);
+	public NXEmptyNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
 	}
 	
 	@Override
@@ -19,80 +19,140 @@
 package net.zepheus.nxjava;
 
 import java.util.EnumSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.locks.ReentrantLock;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 public class NXFile {
 	
 	public static final String PKG_FORMAT = "PKG3";
-	private static final String ENCODING = "UTF-8";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private static final boolean OPEN_BY_DEFAULT = true;
-	private static final EnumSet<NXReadMode> DEFAULT_PARSE_MODE = EnumSet.of(NXReadMode.EAGER_PARSE_STRINGS);
+	// Strings are read from the mapping and cached once decoded
+	private static final EnumSet<NXReadMode> DEFAULT_PARSE_MODE = EnumSet.of(NXReadMode.NONE);
+	private static final int DEFAULT_PATH_CACHE_SIZE = 4096;
+	private static final int HASH_CHUNK_SIZE = 8192;
+	private static final ExecutorService VIRTUAL_THREADS = createVirtualThreadExecutor();
 	
 	// Read properties
 	private boolean low_memory;
 	private boolean lazy_strings;
+	private boolean parse_canvas;
 	
 	// File access stuff
 	private final RandomAccessFile file;
+	private final File source_file;
+	private final File index_file;
+	private long file_size;
 	private ByteBuffer byteBuffer;
 	private SeekableLittleEndianAccessor slea;
-	private SeekableLittleEndianAccessor node_reader;
-	private boolean parsed;
-	private boolean closed;
+	private volatile SeekableLittleEndianAccessor node_reader;
+	private long node_base;
+	private volatile boolean parsed;
+	private volatile boolean closed;
 	private final ReentrantLock lock = new ReentrantLock();
 	
 	// Format specific properties
 	private EnumSet<NXReadMode> parseProperties;
 	private NXHeader header;
 	private String[] strings;
-	private byte[][] stringsb;
+	// In eager mode the whole string table is copied into one arena, indexed by the same offsets
+	private byte[] string_arena;
 	
-	private long[] string_offsets;
-	private long[] bmp_offsets;
-	private long[] mp3_offsets;
+	// Offsets relative to string_base, read as unsigned
+	private int[] string_offsets;
+	private long string_base;
+	private int[] string_hashes;
+	private volatile long[] bmp_offsets;
+	private volatile long[] mp3_offsets;
+	private volatile NXBitmapIndex bmp_index;
 	
 	// Data containers
-	private BufferedImage[] bmp_loaded;
-	private byte[][] mp3_loaded;
+	private volatile NXCache<BufferedImage> bmp_cache;
+	private volatile NXCache<byte[]> mp3_cache;
+	private volatile ForkJoinPool decode_pool;
+	private volatile Executor async_executor;
+	private final ConcurrentHashMap<Integer, CompletableFuture<BufferedImage>> bmp_pending = new ConcurrentHashMap<Integer, CompletableFuture<BufferedImage>>();
+	private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> mp3_pending = new ConcurrentHashMap<Integer, CompletableFuture<byte[]>>();
+	private volatile NXMetrics metrics;
 	
-	private NXNode root;
+	private volatile NXNode root;
+	private volatile NXNodeBudget node_budget;
+	private final NXPathCache path_cache = new NXPathCache(DEFAULT_PATH_CACHE_SIZE);
 	
 	public NXFile(String path) throws FileNotFoundException, IOException {
-		this(new RandomAccessFile(path, "r"));
+		this(path, DEFAULT_PARSE_MODE);
 	}
 	
 	public NXFile(String path, EnumSet<NXReadMode> properties) throws FileNotFoundException, IOException {
-		this(new RandomAccessFile(path, "r"), OPEN_BY_DEFAULT, properties);
+		this(path, properties, null);
 	}
 	
 	public NXFile(RandomAccessFile file) throws IOException {
 		this(file, OPEN_BY_DEFAULT, DEFAULT_PARSE_MODE);
 	}
 
+	public NXFile(String path, EnumSet<NXReadMode> properties, NXProgressListener listener) throws FileNotFoundException, IOException {
+		this(new RandomAccessFile(path, "r"), new File(path), OPEN_BY_DEFAULT, properties, listener);
+	}
+
 	public NXFile(RandomAccessFile file, boolean open, EnumSet<NXReadMode> properties) throws IOException {
+		this(file, open, properties, null);
+	}
+	
+	/**
+	 * @param listener receives the progress of the eager read modes when <code>open</code> is set, may be <code>null</code>
+	 */
+	public NXFile(RandomAccessFile file, boolean open, EnumSet<NXReadMode> properties, NXProgressListener listener) throws IOException {
+		this(file, null, open, properties, listener);
+	}
+	
+	private NXFile(RandomAccessFile file, File source, boolean open, EnumSet<NXReadMode> properties, NXProgressListener listener) throws IOException {
 		this.file = file;
+		this.source_file = source;
+		this.index_file = source != null ? new File(source.getPath() + NXIndex.EXTENSION) : null;
 		this.parseProperties = properties;
 		low_memory = parseProperties.contains(NXReadMode.LOW_MEMORY);
-		lazy_strings = parseProperties.contains(NXReadMode.EAGER_PARSE_STRINGS) || low_memory;
+		lazy_strings = !parseProperties.contains(NXReadMode.EAGER_PARSE_STRINGS) || low_memory;
+		parse_canvas = !parseProperties.contains(NXReadMode.NEVER_PARSE_CANVAS);
+		if(!low_memory) {
+			bmp_cache = new NXBoundedCache<BufferedImage>(NXBoundedCache.UNBOUNDED);
+			mp3_cache = new NXBoundedCache<byte[]>(NXBoundedCache.UNBOUNDED);
+		}
 		
 		if (open) {
 			this.open();
 			this.parse();
+			this.warmUp(listener);
 		}
 	}
 
 	public void open() throws IOException {
 		FileChannel fileChannel = file.getChannel();
-		byteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
-		slea = new SeekableLittleEndianAccessor(byteBuffer);
+		long size = fileChannel.size();
+		file_size = size;
+		if(size <= Integer.MAX_VALUE) {
+			byteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			slea = new SeekableLittleEndianAccessor(byteBuffer);
+		} else {
+			// A single MappedByteBuffer can't address more than 2GB
+			slea = new SegmentedLittleEndianAccessor(fileChannel);
+		}
 	}
 	
 	public void parse() {
@@ -102,72 +162,259 @@ public class NXFile {
 		lock();
 		try {
 			header = new NXHeader(slea);
-			parseStrings();
+			boolean indexed = index_file != null && parseProperties.contains(NXReadMode.SIDECAR_INDEX);
+			long modified = 0;
+			NXIndex index = null;
+			if(indexed) {
+				modified = source_file.lastModified();
+				index = NXIndex.read(index_file, header, file_size, modified);
+				if(index != null && !index.matches(slea, header, file_size))
+					index = null;
+			}
+			int[] offsets = parseStrings(index);
+			if(index != null) {
+				bmp_index = index.getBitmaps();
+			} else if(indexed) {
+				writeIndex(offsets, modified);
+			}
 			
 			parsed = true;
 		} finally { unlock(); }
 	}
 	
-	private void parseStrings()
+	/**
+	 * Applies the eager read modes: <code>PRELOAD_NODES</code> loads the node table,
+	 * <code>EAGER_PARSE_FILE</code> materializes the whole node tree,
+	 * <code>EAGER_PARSE_CANVAS</code> decodes every canvas and <code>EAGER_PARSE_MP3</code> loads every
+	 * sound into the caches. The work is spread over the decode pool. The constructors do this
+	 * when they open the file; call it after {@link #parse()} otherwise.
+	 * @param listener receives the progress of each stage, may be <code>null</code>
+	 */
+	public void warmUp(NXProgressListener listener) {
+		parse();
+		NXWarmUp.run(this, parseProperties, listener);
+	}
+	
+	private int[] parseStrings(NXIndex index)
 	{
-		long offset = header.getStringOffset();
 		int stringCount = header.getStringCount();
 		strings = new String[stringCount];
+		string_base = header.getStringOffset();
+		string_offsets = index != null ? index.getStringOffsets()
+				: NXStringScanner.scan(slea, string_base, getStringTableBound(), stringCount, getDecodePool());
 		
-		slea.seek(offset);
 		if(!lazy_strings) {
-			stringsb = new byte[stringCount][];
-			
-			for(int i = 0; i < strings.length; i++) {
-				//strings[i] = slea.getUTFString();
-				stringsb[i] = slea.getUTFStringB();
+			long length = 0;
+			if(stringCount > 0) {
+				long last = getStringPosition(stringCount - 1);
+				length = last + 2 + slea.getUShort(last) - string_base;
+			}
+			if(length <= Integer.MAX_VALUE)
+				string_arena = slea.getBytes(string_base, (int)length);
+			else
+				lazy_strings = true; // Too big for an arena, keep reading from the mapped file
+		}
+		
+		if(index != null) {
+			string_hashes = index.getStringHashes();
+		} else {
+			string_hashes = new int[stringCount];
+			getDecodePool().invoke(new HashTask(this, 0, stringCount));
+		}
+		return string_offsets;
+	}
+	
+	/**
+	 * The string table ends before the next section, or at the end of the file.
+	 */
+	private long getStringTableBound() {
+		long end = file_size;
+		long[] sections = { header.getNodeOffset(), header.getBmpOffset(), header.getMp3Offset() };
+		for(long offset : sections) {
+			if(offset > string_base && offset < end)
+				end = offset;
+		}
+		return end - string_base;
+	}
+	
+	private long getStringPosition(int id) {
+		return string_base + (string_offsets[id] & 0xFFFFFFFFL);
+	}
+	
+	private void writeIndex(int[] offsets, long modified) {
+		NXBitmapIndex bitmaps = readBitmapIndex();
+		bmp_index = bitmaps;
+		
+		long checksum = NXIndex.checksum(slea, header, file_size, offsets);
+		try {
+			new NXIndex(offsets, string_hashes, bitmaps, checksum).write(index_file, header, file_size, modified);
+		} catch (IOException e) {
+			// The index is only an optimization, the next open simply tries again
+		}
+	}
+	
+	/**
+	 * Gets the hash of a string from the string table. The hash equals
+	 * <code>getString(id).hashCode()</code>, so it can be checked against the cached hash
+	 * of a query string before any bytes are compared.
+	 */
+	int getStringHash(int id) {
+		return string_hashes[id];
+	}
+	
+	/**
+	 * Checks whether a string from the string table equals <code>name</code>. The hashes are
+	 * compared first; the bytes are only compared when the string hasn't been decoded yet.
+	 */
+	boolean equalsString(int id, String name) {
+		if(string_hashes[id] != name.hashCode())
+			return false;
+		String value = strings[id];
+		return value != null ? value.equals(name) : compareString(id, name) == 0;
+	}
+	
+	private int computeHash(int id) {
+		int hash = 0;
+		if(lazy_strings) {
+			long offset = getStringPosition(id);
+			int size = slea.getUShort(offset);
+			for(int i = 0; i < size; i++) {
+				int b = slea.getByte(offset + 2 + i);
+				if(b < 0)
+					return slea.getUTF(offset).hashCode();
+				hash = 31 * hash + b;
 			}
 		} else {
-			string_offsets = new long[stringCount];
-			for(int i = 0; i < stringCount; i++) {
-				int size = slea.getUShort();
-				string_offsets[i] = offset;
-				slea.skip(size);
-				offset += (size + 2);
+			byte[] arena = string_arena;
+			int offset = string_offsets[id];
+			int size = getArenaLength(offset);
+			for(int i = offset + 2; i < offset + 2 + size; i++) {
+				int b = arena[i];
+				if(b < 0)
+					return new String(arena, offset + 2, size, UTF8).hashCode();
+				hash = 31 * hash + b;
+			}
+		}
+		return hash;
+	}
+	
+	private static class HashTask extends RecursiveAction {
+		private final NXFile file;
+		private final int start, end;
+		
+		private HashTask(NXFile file, int start, int end) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= HASH_CHUNK_SIZE) {
+				int[] hashes = file.string_hashes;
+				for(int i = start; i < end; i++)
+					hashes[i] = file.computeHash(i);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new HashTask(file, start, mid), new HashTask(file, mid, end));
 			}
 		}
 	}
 	
 	public String getString(int id) {
-		try {
-			if(strings[id] == null) {
-				if(lazy_strings) {
-					lock();
-					try { //TODO: check all deadlocks that could happen during getstring
-						int cpos = slea.position();
-						slea.seek(string_offsets[id]);
-						strings[id] = slea.getUTFString();
-						slea.seek(cpos);
-					} finally { unlock(); }
-				} else {
-					strings[id] = new String(stringsb[id], ENCODING);
-					stringsb[id] = null; //force GC
-				}
+		// Strings are immutable, so a racy publication of a decoded string is harmless.
+		String value = strings[id];
+		if(value == null) {
+			if(lazy_strings) {
+				value = slea.getUTF(getStringPosition(id));
+				strings[id] = value;
+			} else {
+				// The bytes are kept, so names can still be compared without decoding them
+				int offset = string_offsets[id];
+				value = new String(string_arena, offset + 2, getArenaLength(offset), UTF8);
+				strings[id] = value;
 			}
-			return strings[id];
-		} catch (UnsupportedEncodingException e) {
-			return null;
+			NXMetrics m = metrics;
+			if(m != null)
+				m.stringDecoded();
+		}
+		return value;
+	}
+	
+	/**
+	 * Compares a string from the string table with <code>name</code> in code point order,
+	 * which is also the byte order of UTF-8. ASCII is compared straight against the stored
+	 * bytes; the stored string is only decoded when either side has other characters.
+	 */
+	int compareString(int id, String name) {
+		int length = name.length();
+		if(lazy_strings) {
+			long offset = getStringPosition(id);
+			int size = slea.getUShort(offset);
+			offset += 2;
+			int count = Math.min(size, length);
+			for(int i = 0; i < count; i++) {
+				int b = slea.getByte(offset + i);
+				int c = name.charAt(i);
+				if(b < 0 || c >= 0x80)
+					return compareCodePoints(getString(id), name);
+				if(b != c)
+					return b - c;
+			}
+			return size - length;
+		} else {
+			byte[] arena = string_arena;
+			int offset = string_offsets[id] + 2;
+			int size = getArenaLength(offset - 2);
+			int count = Math.min(size, length);
+			for(int i = 0; i < count; i++) {
+				int b = arena[offset + i];
+				int c = name.charAt(i);
+				if(b < 0 || c >= 0x80)
+					return compareCodePoints(getString(id), name);
+				if(b != c)
+					return b - c;
+			}
+			return size - length;
+		}
+	}
+	
+	private int getArenaLength(int offset) {
+		return (string_arena[offset] & 0xFF) | (string_arena[offset + 1] & 0xFF) << 8;
+	}
+	
+	private static int compareCodePoints(String a, String b) {
+		int i = 0, j = 0;
+		while(i < a.length() && j < b.length()) {
+			int x = a.codePointAt(i);
+			int y = b.codePointAt(j);
+			if(x != y)
+				return x - y;
+			i += Character.charCount(x);
+			j += Character.charCount(y);
 		}
+		return (a.length() - i) - (b.length() - j);
 	}
 	
 	public NXNode getRoot() {
-		if(root == null) {	
+		NXNode value = root;
+		if(value == null) {
 			lock();
 			try {
-				if(!low_memory) {
-					slea.seek(header.getNodeOffset());
-					ByteBuffer node_buff = ByteBuffer.wrap(slea.getBytes(header.getNodeCount() * NXNode.SIZE));
-					node_reader = new SeekableLittleEndianAccessor(node_buff);
+				if((value = root) == null) {
+					root = value = NXNodeParser.parse(this, 0, null);
 				}
-				root = NXNodeParser.parse(getNodeStream(0), null, this);
 			} finally { unlock(); }
 		}
-		return root;
+		return value;
+	}
+	
+	/**
+	 * Creates a cursor positioned at the root node. Cursors read the node table directly
+	 * and never create node objects, but a single cursor must not be shared between threads.
+	 */
+	public NXCursor getCursor() {
+		return new NXCursor(this);
 	}
 	
 	public NXNode resolvePath(String... path) {
@@ -182,133 +429,591 @@ public class NXFile {
 		return currentNode;
 	}
 	
+	/**
+	 * Resolves a <code>'/'</code> separated path such as <code>"Effect/BasicEff.img/LevelUp/5/origin"</code>.
+	 * Resolved paths and their parents are cached, so repeated lookups are a single hash lookup.
+	 * A single argument binds to this method rather than {@link #resolvePath(String...)}, so a
+	 * child whose name contains <code>'/'</code> has to be resolved with an explicit array.
+	 */
+	public NXNode resolvePath(String path) {
+		NXNode node = path_cache.get(path);
+		return node != null ? node : resolvePath(NXPath.compile(path));
+	}
+	
+	public NXNode resolvePath(NXPath path) {
+		int length = path.getLength();
+		int depth = length;
+		NXNode node = null;
+		// Start from the deepest cached prefix, so sibling paths share their resolved parents
+		while(depth > 0 && (node = path_cache.get(path.getPrefix(depth - 1))) == null)
+			depth--;
+		if(node == null)
+			node = getRoot();
+		
+		for(; depth < length; depth++) {
+			node = node.getChild(path.getSegment(depth));
+			if(node == null)
+				throw new NXException("Invalid path");
+			path_cache.put(path.getPrefix(depth), node);
+		}
+		return node;
+	}
+	
+	/**
+	 * Sets the maximum number of resolved paths kept by {@link #resolvePath(String)}; 0 disables the cache.
+	 */
+	public void setPathCacheSize(int size) {
+		path_cache.setCapacity(size);
+	}
+	
+	public int getPathCacheSize() {
+		return path_cache.getCapacity();
+	}
+	
 	public byte[] getMP3(int id) {
 		byte[] value;
-		if(!low_memory && mp3_loaded != null && (value = mp3_loaded[id]) != null) {
+		NXCache<byte[]> cache = mp3_cache;
+		if(cache != null && (value = cache.get(id)) != null) {
 			return value;
 		} else {
 			long offset = getMP3Offset(id);
 			if(offset < 0)
 				throw new NXException("The NX file does not include this MP3.");
 			
-			lock();
-			try {
-				SeekableLittleEndianAccessor slea = getStreamAtOffset(offset);
-				int size = (int)slea.getUInt(); //Warning: this could go out of bounds (but unlikely)
-				value = slea.getBytes(size);
-			} finally { unlock(); }
+			checkOpen();
+			NXMetrics m = metrics;
+			long start = m != null ? System.nanoTime() : 0;
+			int size = (int)slea.getUInt(offset); //Warning: this could go out of bounds (but unlikely)
+			value = slea.getBytes(offset + 4, size);
+			if(m != null)
+				m.mp3Loaded(System.nanoTime() - start);
 			
-			if(!low_memory) {
-				mp3_loaded[id] = value;
+			if(cache != null) {
+				cache.put(id, value, size);
 			}
 			return value;
 		}
 	}
 	
+	/**
+	 * Gets a read-only view of an MP3 in the mapped file. Unlike {@link #getMP3(int)} the data
+	 * isn't copied or cached, which suits streaming large sounds.
+	 * @param id the MP3 id
+	 * @return a buffer positioned at the start of the MP3 data
+	 */
+	public ByteBuffer getMP3Buffer(int id) {
+		long offset = getMP3Offset(id);
+		if(offset < 0)
+			throw new NXException("The NX file does not include this MP3.");
+		
+		checkOpen();
+		int size = (int)slea.getUInt(offset);
+		return slea.slice(offset + 4, size).asReadOnlyBuffer();
+	}
+	
 	public BufferedImage getBitmap(int id) {
 		BufferedImage value;
-		if(!low_memory && bmp_loaded != null && (value = bmp_loaded[id]) != null) {
+		NXCache<BufferedImage> cache = bmp_cache;
+		if(cache != null && (value = cache.get(id)) != null) {
 			return value;
 		} else {
-			long offset = getBitmapOffset(id);
-			if(offset == -1)
-				throw new NXException("NX file does not this canvas.");
+			long offset = getBitmapRecord(id);
+			int width = slea.getUShort(offset);
+			int height = slea.getUShort(offset + 2);
+			
+			ByteBuffer output = NXCompression.allocate(width * height * 4);
+			decompressBitmap(offset, output);
+			value = NXBitmapConverter.toImage(output, width, height);
 			
+			if(cache != null) cache.put(id, value, width * height * 4L);
+			return value;
+		}
+	}
+	
+	/**
+	 * Decodes a bitmap straight into <code>dst</code>, without creating an image or caching anything.
+	 * The pixels are written at the buffer's position as 4 bytes each in B, G, R, A order, row by row
+	 * from the top, and the position is advanced past them. Both decoders write into the buffer
+	 * without an intermediate copy; the native one is only used for direct buffers.
+	 * @param id the bitmap id
+	 * @param dst the buffer to decode into, with at least <code>width * height * 4</code> bytes remaining
+	 * @throws NXException if the bitmap doesn't exist or doesn't fit in <code>dst</code>
+	 */
+	public void decodeBitmap(int id, ByteBuffer dst) {
+		long offset = getBitmapRecord(id);
+		int size = slea.getUShort(offset) * slea.getUShort(offset + 2) * 4;
+		if(dst.remaining() < size)
+			throw new NXException("The buffer is too small for this canvas.");
+		
+		int position = dst.position();
+		ByteBuffer target = dst.duplicate();
+		target.limit(position + size);
+		decompressBitmap(offset, target.slice());
+		dst.position(position + size);
+	}
+	
+	public int getBitmapWidth(int id) {
+		return getBitmapSize(id) & 0xFFFF;
+	}
+	
+	public int getBitmapHeight(int id) {
+		return getBitmapSize(id) >>> 16;
+	}
+	
+	/**
+	 * Reads the size of the compressed pixel data of a bitmap, without decompressing it.
+	 */
+	public int getBitmapCompressedSize(int id) {
+		NXBitmapIndex index = bmp_index;
+		if(index == null || !parse_canvas)
+			return (int)slea.getUInt(getBitmapRecord(id) + 4);
+		checkOpen();
+		return index.getCompressedSize(id);
+	}
+	
+	private int getBitmapSize(int id) {
+		NXBitmapIndex index = bmp_index;
+		if(index == null || !parse_canvas) {
+			long offset = getBitmapRecord(id);
+			return slea.getUShort(offset) | slea.getUShort(offset + 2) << 16;
+		}
+		checkOpen();
+		return index.getWidth(id) | index.getHeight(id) << 16;
+	}
+	
+	/**
+	 * Gets the dimensions and compressed sizes of all bitmaps. The index is read from the bitmap
+	 * headers in one pass the first time it's needed, or comes from the sidecar index with
+	 * <code>SIDECAR_INDEX</code>, and is then also used by {@link #getBitmapWidth(int)},
+	 * {@link #getBitmapHeight(int)} and {@link #getBitmapCompressedSize(int)}.
+	 * @throws NXException if canvas parsing is disabled
+	 */
+	public NXBitmapIndex getBitmapIndex() {
+		if(!parse_canvas)
+			throw new NXException("Canvas parsing is disabled for this file.");
+		
+		NXBitmapIndex index = bmp_index;
+		if(index == null) {
 			lock();
 			try {
-				SeekableLittleEndianAccessor slea = getStreamAtOffset(offset);
-				
-				int width = slea.getUShort();
-				int height = slea.getUShort();
-				long length = slea.getUInt();
-				
-				ByteBuffer output = ByteBuffer.allocateDirect(width * height * 4);
-				NXCompression.decompress(slea.getBuffer(), offset + 4, length + 4, output, 0);
-				output.rewind();
-				output.order(ByteOrder.LITTLE_ENDIAN);
-				
-				//TODO: optimize this without bitshifts.
-				value = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-				for (int h = 0; h < height; h++) {
-					for (int w = 0; w < width; w++) {
-						int b = output.get() & 0xFF;
-						int g = output.get() & 0xFF;
-						int r = output.get() & 0xFF;
-						int a = output.get() & 0xFF;
-						value.setRGB(w, h, (a << 24) | (r << 16) | (g << 8) | b);
-					}
-				}
+				if((index = bmp_index) == null)
+					bmp_index = index = readBitmapIndex();
 			} finally { unlock(); }
-			
-			if(!low_memory) bmp_loaded[id] = value;
-			return value;
+		}
+		return index;
+	}
+	
+	private NXBitmapIndex readBitmapIndex() {
+		checkOpen();
+		int[] sizes = new int[header.getBmpCount()];
+		int[] lengths = new int[sizes.length];
+		for(int i = 0; i < sizes.length; i++) {
+			long offset = getBitmapOffset(i);
+			sizes[i] = slea.getUShort(offset) | slea.getUShort(offset + 2) << 16;
+			lengths[i] = (int)slea.getUInt(offset + 4);
+		}
+		return new NXBitmapIndex(sizes, lengths);
+	}
+	
+	private long getBitmapRecord(int id) {
+		if(!parse_canvas)
+			throw new NXException("Canvas parsing is disabled for this file.");
+		
+		long offset = getBitmapOffset(id);
+		if(offset == -1)
+			throw new NXException("NX file does not this canvas.");
+		
+		checkOpen();
+		return offset;
+	}
+	
+	private void decompressBitmap(long offset, ByteBuffer output) {
+		NXMetrics m = metrics;
+		long start = m != null ? System.nanoTime() : 0;
+		int length = (int)slea.getUInt(offset + 4);
+		NXCompression.decompressBlock(slea.slice(offset + 8, length), 0, length, output, 0);
+		if(m != null)
+			m.bitmapDecoded(output.capacity(), System.nanoTime() - start);
+	}
+	
+	/**
+	 * Decodes several bitmaps at once, decompressing them in parallel on the decode pool.
+	 * @param ids the bitmap ids to decode
+	 * @return the bitmaps, in the order of <code>ids</code>
+	 */
+	public BufferedImage[] getBitmaps(int[] ids) {
+		BufferedImage[] images = new BufferedImage[ids.length];
+		if(ids.length == 1) {
+			images[0] = getBitmap(ids[0]);
+		} else if(ids.length > 1) {
+			getDecodePool().invoke(new BitmapTask(this, ids, images, 0, ids.length));
+		}
+		return images;
+	}
+	
+	/**
+	 * Loads a bitmap on the async executor. Concurrent requests for the same bitmap share a single decode.
+	 */
+	public CompletableFuture<BufferedImage> getBitmapAsync(final int id) {
+		BufferedImage value;
+		NXCache<BufferedImage> cache = bmp_cache;
+		if(cache != null && (value = cache.get(id)) != null)
+			return CompletableFuture.completedFuture(value);
+		
+		return submit(bmp_pending, id, new Callable<BufferedImage>() {
+			public BufferedImage call() {
+				return getBitmap(id);
+			}
+		});
+	}
+	
+	/**
+	 * Loads an MP3 on the async executor. Concurrent requests for the same MP3 share a single load.
+	 */
+	public CompletableFuture<byte[]> getMP3Async(final int id) {
+		byte[] value;
+		NXCache<byte[]> cache = mp3_cache;
+		if(cache != null && (value = cache.get(id)) != null)
+			return CompletableFuture.completedFuture(value);
+		
+		return submit(mp3_pending, id, new Callable<byte[]>() {
+			public byte[] call() {
+				return getMP3(id);
+			}
+		});
+	}
+	
+	/**
+	 * Resolves a path on the async executor, see {@link #resolvePath(String)}.
+	 */
+	public CompletableFuture<NXNode> resolvePathAsync(final String path) {
+		NXNode node = path_cache.get(path);
+		if(node != null)
+			return CompletableFuture.completedFuture(node);
+		
+		return submit(null, 0, new Callable<NXNode>() {
+			public NXNode call() {
+				return resolvePath(path);
+			}
+		});
+	}
+	
+	private <T> CompletableFuture<T> submit(final ConcurrentHashMap<Integer, CompletableFuture<T>> pending, final int id, final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		if(pending != null) {
+			CompletableFuture<T> running = pending.putIfAbsent(id, future);
+			if(running != null)
+				return running;
+		}
+		
+		Runnable runnable = new Runnable() {
+			public void run() {
+				try {
+					future.complete(task.call());
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				} finally {
+					if(pending != null)
+						pending.remove(id, future);
+				}
+			}
+		};
+		try {
+			getAsyncExecutor().execute(runnable);
+		} catch (RejectedExecutionException e) {
+			if(pending != null)
+				pending.remove(id, future);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Sets the executor of the async methods; <code>null</code> selects the default, which runs
+	 * every task on a virtual thread where the runtime supports them and on the decode pool otherwise.
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		async_executor = executor;
+	}
+	
+	public Executor getAsyncExecutor() {
+		Executor executor = async_executor;
+		if(executor != null)
+			return executor;
+		return VIRTUAL_THREADS != null ? VIRTUAL_THREADS : getDecodePool();
+	}
+	
+	private static ExecutorService createVirtualThreadExecutor() {
+		// Looked up reflectively, so the library still runs on runtimes without virtual threads
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Sets the pool used for parallel decoding; <code>null</code> selects the common pool.
+	 */
+	public void setDecodePool(ForkJoinPool pool) {
+		decode_pool = pool;
+	}
+	
+	public ForkJoinPool getDecodePool() {
+		ForkJoinPool pool = decode_pool;
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+	
+	private static class BitmapTask extends RecursiveAction {
+		private final NXFile file;
+		private final int[] ids;
+		private final BufferedImage[] images;
+		private final int start, end;
+		
+		private BitmapTask(NXFile file, int[] ids, BufferedImage[] images, int start, int end) {
+			this.file = file;
+			this.ids = ids;
+			this.images = images;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			// A single bitmap is already plenty of work, so split all the way down
+			if(end - start == 1) {
+				images[start] = file.getBitmap(ids[start]);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new BitmapTask(file, ids, images, start, mid), new BitmapTask(file, ids, images, mid, end));
+			}
 		}
 	}
 	
 	public long getBitmapOffset(int id) {
 		int count = header.getBmpCount();
-		if(count == 0 || id > count)
+		if(count == 0 || id >= count)
 			return -1;
 		
-		if(bmp_offsets == null) {
-			bmp_offsets = new long[count];
+		long[] offsets = bmp_offsets;
+		if(offsets == null) {
 			lock();
 			try {
-				populateOffsetTable(bmp_offsets, header.getBmpOffset());
+				if((offsets = bmp_offsets) == null) {
+					offsets = readOffsetTable(count, header.getBmpOffset());
+					bmp_offsets = offsets;
+				}
 			} finally { unlock(); }
-			
-			if(!low_memory) {
-				bmp_loaded = new BufferedImage[count];
-			}
 		}
-		return bmp_offsets[id];
+		return offsets[id];
 	}
 	
 	public long getMP3Offset(int id) {
 		int count = header.getMp3Count();
-		if(count == 0 || id > count)
+		if(count == 0 || id >= count)
 			return -1;
 		
-		if(mp3_offsets == null) {
-			mp3_offsets = new long[count];
+		long[] offsets = mp3_offsets;
+		if(offsets == null) {
 			lock();
 			try {
-				populateOffsetTable(mp3_offsets, header.getMp3Offset());
+				if((offsets = mp3_offsets) == null) {
+					offsets = readOffsetTable(count, header.getMp3Offset());
+					mp3_offsets = offsets;
+				}
 			} finally { unlock(); }
-			
-			if(!low_memory) {
-				mp3_loaded = new byte[count][];
-			}
 		}
-		return mp3_offsets[id];
+		return offsets[id];
+	}
+	
+	/**
+	 * Replaces the cache for decoded bitmaps, e.g. with a <code>NXBoundedCache</code> of a fixed
+	 * byte budget. Bitmaps are weighted as <code>width * height * 4</code> bytes;
+	 * <code>null</code> disables caching.
+	 */
+	public void setBitmapCache(NXCache<BufferedImage> cache) {
+		bmp_cache = cache;
+	}
+	
+	/**
+	 * @return <code>false</code> if the file was opened with <code>NEVER_PARSE_CANVAS</code>
+	 */
+	public boolean isCanvasParsingEnabled() {
+		return parse_canvas;
+	}
+	
+	public NXCache<BufferedImage> getBitmapCache() {
+		return bmp_cache;
+	}
+	
+	/**
+	 * Replaces the cache for loaded MP3s, which are weighted by their length.
+	 * <code>null</code> disables caching.
+	 */
+	public void setMP3Cache(NXCache<byte[]> cache) {
+		mp3_cache = cache;
 	}
 	
-	private void populateOffsetTable(long[] to, long start) {
-		slea.seek(start);
+	public NXCache<byte[]> getMP3Cache() {
+		return mp3_cache;
+	}
+	
+	private long[] readOffsetTable(int count, long start) {
+		checkOpen();
+		long[] to = new long[count];
 		for(int i = 0; i < to.length; i++) {
-			to[i] = slea.getLong();
+			to[i] = slea.getLong(start + i * 8L);
 		}
+		return to;
 	}
 	
+	/**
+	 * Gets a private stream positioned at the given node. The returned stream is not shared,
+	 * so callers don't need to hold the file lock while reading from it.
+	 */
 	public SeekableLittleEndianAccessor getNodeStream(int id) {
-		if(closed)
-			throw new NXException("File already closed.");
-		
-		SeekableLittleEndianAccessor stream = low_memory ? slea : node_reader;
-		stream.seek((low_memory ? header.getNodeOffset() : 0) + id * NXNode.SIZE);
+		SeekableLittleEndianAccessor stream = getNodeTable().duplicate();
+		stream.seek(getNodePosition(id));
 		return stream;
 	}
 	
+	/**
+	 * Gets a private stream positioned at the given file offset.
+	 */
 	public SeekableLittleEndianAccessor getStreamAtOffset(long offset) {
+		checkOpen();
+		SeekableLittleEndianAccessor stream = slea.duplicate();
+		stream.seek(offset);
+		return stream;
+	}
+	
+	SeekableLittleEndianAccessor getNodeTable() {
+		checkOpen();
+		SeekableLittleEndianAccessor reader = node_reader;
+		return reader != null ? reader : loadNodeTable();
+	}
+	
+	long getNodePosition(int id) {
+		return node_base + (long)id * NXNode.SIZE;
+	}
+
+	int getNodeId(long position) {
+		getNodeTable();
+		return (int)((position - node_base) / NXNode.SIZE);
+	}
+	
+	private SeekableLittleEndianAccessor loadNodeTable() {
+		lock();
+		try {
+			if(node_reader == null) {
+				long offset = header.getNodeOffset();
+				long size = (long)header.getNodeCount() * NXNode.SIZE;
+				if(parseProperties.contains(NXReadMode.PRELOAD_NODES) && size > 0)
+					NXRegionLoader.load(file.getChannel(), offset, size, getDecodePool());
+				
+				if(low_memory || parseProperties.contains(NXReadMode.MAPPED_NODES) || size > Integer.MAX_VALUE) {
+					// Too big for a byte[] or kept off the heap, so the nodes are read from the mapped file instead
+					node_base = offset;
+					node_reader = slea;
+				} else {
+					ByteBuffer node_buff = ByteBuffer.wrap(NXRegionLoader.copy(slea, offset, (int)size, getDecodePool()));
+					node_base = 0;
+					node_reader = new SeekableLittleEndianAccessor(node_buff);
+				}
+			}
+			return node_reader;
+		} finally { unlock(); }
+	}
+	
+	/**
+	 * Limits how many child slots materialized nodes may hold, roughly the number of node objects
+	 * kept alive by the tree. Past the budget, the children of nodes that weren't accessed recently are
+	 * dropped and parsed again from the node table when they're needed. Nodes obtained before their
+	 * parent was unloaded keep working, but a new lookup returns a new object for them.
+	 * @param nodes the budget; <code>Integer.MAX_VALUE</code>, the default, keeps every node
+	 */
+	public void setNodeBudget(int nodes) {
+		lock();
+		try {
+			NXNodeBudget budget = node_budget;
+			if(nodes == Integer.MAX_VALUE) {
+				node_budget = null;
+			} else if(budget != null) {
+				budget.setCapacity(nodes);
+				unloaded(budget.trim());
+			} else {
+				// Published before the walk, so children published without the lock after this point
+				// see the budget and register themselves, and the ones published before are walked
+				budget = new NXNodeBudget(nodes);
+				node_budget = budget;
+				if(root != null)
+					root.addLoaded(budget);
+				unloaded(budget.trim());
+			}
+		} finally { unlock(); }
+	}
+	
+	public int getNodeBudget() {
+		NXNodeBudget budget = node_budget;
+		return budget != null ? budget.getCapacity() : Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * Called with the lock held when a node allocates its children.
+	 */
+	void childrenLoaded(NXNode node, int childCount) {
+		NXNodeBudget budget = node_budget;
+		if(budget != null) {
+			budget.add(node, childCount);
+			unloaded(budget.trim());
+		}
+	}
+	
+	/**
+	 * Called with the lock held, to tell whether the budget already registered a node's children.
+	 */
+	boolean isInNodeBudget(NXNode node) {
+		NXNodeBudget budget = node_budget;
+		return budget != null && budget.contains(node);
+	}
+	
+	private void unloaded(int count) {
+		NXMetrics m = metrics;
+		if(m != null && count > 0)
+			m.nodesUnloaded(count);
+	}
+	
+	/**
+	 * Turns metrics on or off. Enabling them again starts from zero.
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		metrics = enabled ? new NXMetrics(this) : null;
+	}
+	
+	/**
+	 * @return the metrics of this file, or <code>null</code> if they are disabled
+	 */
+	public NXMetrics getMetrics() {
+		return metrics;
+	}
+	
+	private void checkOpen() {
 		if(closed)
 			throw new NXException("File already closed.");
-		slea.seek(offset);
-		return slea;
 	}
 	
 	public void lock()
 	{
-		lock.lock();
+		NXMetrics m = metrics;
+		if(m == null) {
+			lock.lock();
+		} else if(lock.tryLock()) {
+			m.lockAcquired(0);
+		} else {
+			long start = System.nanoTime();
+			lock.lock();
+			m.lockAcquired(System.nanoTime() - start);
+		}
 	}
 	
 	public void unlock()
@@ -323,11 +1028,12 @@ public class NXFile {
 		
 		lock();
 		try {
+			closed = true;
+			path_cache.clear();
 			file.close();
 			slea = null;
 			node_reader = null;
 			byteBuffer = null;
-			closed = true;
 		} catch (IOException e) {}
 		finally { unlock(); }
 	}
@@ -18,7 +18,12 @@
 
 package net.zepheus.nxjava;
 
+import java.nio.charset.Charset;
+
 public class NXHeader {
+	public static final int SIZE = 52;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	
 	private String format;
 
 	// Warning: there's no support for uint
@@ -36,20 +41,19 @@ public class NXHeader {
 	private long mp3Offset;
 	
 	public NXHeader(SeekableLittleEndianAccessor slea){
-		slea.seek(0);
-		format = slea.getUTFString(4);
+		format = new String(slea.getBytes(0, 4), ASCII);
 		if(!NXFile.PKG_FORMAT.equals(format)) {
 			throw new NXException("Invalid NX file header.");
 		}
 		
-		nodeCount = (int)slea.getUInt();
-		nodeOffset=  slea.getLong();
-		stringCount = (int)slea.getUInt();
-		stringOffset = slea.getLong();
-		bmpCount = (int)slea.getUInt();
-		bmpOffset = slea.getLong();
-		mp3Count = (int)slea.getUInt();
-		mp3Offset = slea.getLong();
+		nodeCount = (int)slea.getUInt(4);
+		nodeOffset = slea.getLong(8);
+		stringCount = (int)slea.getUInt(16);
+		stringOffset = slea.getLong(20);
+		bmpCount = (int)slea.getUInt(28);
+		bmpOffset = slea.getLong(32);
+		mp3Count = (int)slea.getUInt(40);
+		mp3Offset = slea.getLong(44);
 	}
 
 	public String getFormat() {
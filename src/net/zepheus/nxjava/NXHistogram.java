@@ -0,0 +1,85 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with power of two buckets: bucket
+ * <code>i</code> counts the values from <code>2^(i-1)</code> up to <code>2^i</code>, bucket 0 counts zeros.
+ */
+public class NXHistogram {
+	
+	public static final int BUCKETS = 64;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	public void record(long nanos) {
+		int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+		counts.incrementAndGet(bucket);
+	}
+	
+	/**
+	 * @return a copy of the bucket counts
+	 */
+	public long[] getCounts() {
+		long[] copy = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++)
+			copy[i] = counts.get(i);
+		return copy;
+	}
+	
+	public long getCount() {
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++)
+			total += counts.get(i);
+		return total;
+	}
+	
+	/**
+	 * Estimates a percentile as the upper bound of the bucket it falls in.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the estimate in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		return getPercentile(getCounts(), percentile);
+	}
+	
+	static long getPercentile(long[] counts, double percentile) {
+		long total = 0;
+		for(long count : counts)
+			total += count;
+		if(total == 0)
+			return 0;
+		
+		long rank = (long)Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank && seen > 0)
+				return i == 0 ? 0 : 1L << Math.min(i, 62);
+		}
+		return 1L << 62;
+	}
+	
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+	}
+}
@@ -0,0 +1,203 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A sidecar file holding the data that is otherwise recomputed on every open: the string
+ * offsets, the string hashes and the canvas dimensions and compressed sizes. The index is keyed
+ * by the size and modification time of the NX file and a checksum over its header, the string
+ * table up to the end of the last indexed string, the bitmap offset table and samples of the
+ * other sections. Any change to the
+ * data the index is derived from is detected, except for bitmap headers rewritten in place with
+ * the modification time preserved.
+ */
+class NXIndex {
+	
+	static final String EXTENSION = ".idx";
+	private static final int MAGIC = 0x5849584E; // "NXIX"
+	private static final int VERSION = 5;
+	private static final int HEADER_SIZE = 40;
+	private static final int SAMPLE_SIZE = 4096;
+	private static final int CHUNK_SIZE = 1 << 24;
+	
+	private final int[] stringOffsets;
+	private final int[] stringHashes;
+	private final NXBitmapIndex bitmaps;
+	private final long checksum;
+	
+	NXIndex(int[] stringOffsets, int[] stringHashes, NXBitmapIndex bitmaps, long checksum) {
+		this.stringOffsets = stringOffsets;
+		this.stringHashes = stringHashes;
+		this.bitmaps = bitmaps;
+		this.checksum = checksum;
+	}
+	
+	/**
+	 * Reads the index of a file. The checksum can only be computed from the string offsets, so it
+	 * isn't verified here; see {@link #matches(SeekableLittleEndianAccessor, NXHeader, long)}.
+	 * @return the index, or <code>null</code> if there is none or it was written for another file
+	 */
+	static NXIndex read(File file, NXHeader header, long size, long modified) {
+		if(!file.isFile())
+			return null;
+		
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+				int strings = header.getStringCount();
+				int bitmaps = header.getBmpCount();
+				if(buffer.capacity() != HEADER_SIZE + strings * 8L + bitmaps * 8L
+						|| buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+						|| buffer.getLong(8) != size || buffer.getLong(16) != modified
+						|| buffer.getInt(32) != strings || buffer.getInt(36) != bitmaps)
+					return null;
+				
+				int[] offsets = new int[strings];
+				int[] hashes = new int[strings];
+				int[] sizes = new int[bitmaps];
+				int[] lengths = new int[bitmaps];
+				buffer.position(HEADER_SIZE);
+				buffer.asIntBuffer().get(offsets);
+				buffer.position(HEADER_SIZE + strings * 4);
+				buffer.asIntBuffer().get(hashes);
+				buffer.position(HEADER_SIZE + strings * 8);
+				buffer.asIntBuffer().get(sizes);
+				buffer.position(HEADER_SIZE + strings * 8 + bitmaps * 4);
+				buffer.asIntBuffer().get(lengths);
+				return new NXIndex(offsets, hashes, new NXBitmapIndex(sizes, lengths), buffer.getLong(24));
+			} finally { raf.close(); }
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes the index next to the file. The index is written to a temporary file first and then
+	 * moved in place, so concurrent readers never see a partial index.
+	 * @throws IOException if the index can't be written, e.g. because the directory is read-only
+	 */
+	void write(File file, NXHeader header, long size, long modified) throws IOException {
+		int[] bitmapSizes = bitmaps.getSizes();
+		int length = HEADER_SIZE + stringOffsets.length * 8 + bitmapSizes.length * 8;
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(size);
+		buffer.putLong(modified);
+		buffer.putLong(checksum);
+		buffer.putInt(stringOffsets.length);
+		buffer.putInt(bitmapSizes.length);
+		buffer.asIntBuffer().put(stringOffsets);
+		buffer.position(HEADER_SIZE + stringOffsets.length * 4);
+		buffer.asIntBuffer().put(stringHashes);
+		buffer.position(HEADER_SIZE + stringOffsets.length * 8);
+		buffer.asIntBuffer().put(bitmapSizes);
+		buffer.position(HEADER_SIZE + stringOffsets.length * 8 + bitmapSizes.length * 4);
+		buffer.asIntBuffer().put(bitmaps.getLengths());
+		buffer.position(0);
+		
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+			} finally { raf.close(); }
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Checks the stored checksum against the file.
+	 */
+	boolean matches(SeekableLittleEndianAccessor slea, NXHeader header, long size) {
+		return checksum(slea, header, size, stringOffsets) == checksum;
+	}
+	
+	/**
+	 * Computes the checksum an index is keyed by. The string offsets and hashes are derived from
+	 * the bytes up to the end of the last string and the canvas data is found through the bitmap
+	 * offset table, so both are covered in full; the rest of the file is only sampled.
+	 * @param stringOffsets the string offsets, relative to the string table
+	 * @return the checksum, or -1 if the offsets point outside of the file
+	 */
+	static long checksum(SeekableLittleEndianAccessor slea, NXHeader header, long size, int[] stringOffsets) {
+		long base = header.getStringOffset();
+		long length = 0;
+		if(stringOffsets.length > 0) {
+			// Strings are stored in order, so the table ends with the last one
+			long last = base + (stringOffsets[stringOffsets.length - 1] & 0xFFFFFFFFL);
+			if(last + 2 > size)
+				return -1;
+			length = last + 2 + slea.getUShort(last) - base;
+			if(base + length > size)
+				return -1;
+		}
+		
+		CRC32 crc = new CRC32();
+		update(crc, slea, 0, NXHeader.SIZE);
+		update(crc, slea, base, length);
+		update(crc, slea, header.getBmpOffset(), header.getBmpCount() * 8L);
+		long[] samples = { header.getNodeOffset(), header.getMp3Offset(), size - SAMPLE_SIZE };
+		for(long offset : samples) {
+			offset = Math.max(0, offset);
+			update(crc, slea, offset, Math.min(SAMPLE_SIZE, size - offset));
+		}
+		return crc.getValue();
+	}
+	
+	private static void update(CRC32 crc, SeekableLittleEndianAccessor slea, long offset, long length) {
+		while(length > 0) {
+			int chunk = (int)Math.min(CHUNK_SIZE, length);
+			crc.update(slea.slice(offset, chunk));
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+	
+	/**
+	 * @return the string offsets, relative to the string table
+	 */
+	int[] getStringOffsets() {
+		return stringOffsets;
+	}
+	
+	int[] getStringHashes() {
+		return stringHashes;
+	}
+	
+	NXBitmapIndex getBitmaps() {
+		return bitmaps;
+	}
+}
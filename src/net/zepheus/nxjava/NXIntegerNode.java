@@ -20,15 +20,29 @@ package net.zepheus.nxjava;
 
 public class NXIntegerNode extends NXNode {
 	
-	private long value;
-	public NXIntegerNode(String name, NXNode parent, NXFile file, int childCount, long value) {
-		super(name, parent, file, childCount);
-		this.value = value;
+	public NXIntegerNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
+	}
+	
+	public long getLong()
+	{
+		// Stored as a signed 32-bit value
+		return readData(0);
+	}
+	
+	@Override
+	public long getLong(long def) {
+		return getLong();
+	}
+	
+	@Override
+	public double getDouble(double def) {
+		return getLong();
 	}
 	
 	@Override
 	public Object getValue()
 	{
-		return value;
+		return getLong();
 	}
 }
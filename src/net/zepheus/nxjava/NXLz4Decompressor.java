@@ -0,0 +1,204 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pure Java decoder for raw LZ4 blocks, the format canvases are compressed with.
+ * Unlike the native binding it works on heap buffers and needs no native library.
+ */
+public class NXLz4Decompressor {
+	
+	private static final int MIN_MATCH = 4;
+	
+	/**
+	 * Decompresses a block from any kind of buffer into any kind of buffer.
+	 * Neither buffer's position is used or changed. Heap outputs are decoded as arrays; other
+	 * outputs, such as direct buffers, are written in place without an intermediate array.
+	 * @param input the buffer holding the compressed block
+	 * @param inputOffset the offset of the block in <code>input</code>
+	 * @param length the compressed length of the block
+	 * @param output the buffer to decompress into
+	 * @param outputOffset the offset in <code>output</code> to decompress to
+	 * @return the number of decompressed bytes
+	 */
+	public static int decompress(ByteBuffer input, int inputOffset, int length, ByteBuffer output, int outputOffset) {
+		if(!output.hasArray())
+			return decompressInPlace(input, inputOffset, length, output, outputOffset);
+		
+		byte[] src;
+		int srcOffset;
+		if(input.hasArray()) {
+			src = input.array();
+			srcOffset = input.arrayOffset() + inputOffset;
+		} else {
+			// One bulk copy of the (small) compressed block beats a bounds-checked buffer read per token
+			src = new byte[length];
+			ByteBuffer view = input.duplicate();
+			view.position(inputOffset);
+			view.get(src);
+			srcOffset = 0;
+		}
+		
+		int dstOffset = output.arrayOffset() + outputOffset;
+		return decompress(src, srcOffset, length, output.array(), dstOffset, output.capacity() - outputOffset);
+	}
+	
+	/**
+	 * The same decoder as {@link #decompress(byte[], int, int, byte[], int, int)}, reading and
+	 * writing the buffers through absolute gets and puts.
+	 */
+	private static int decompressInPlace(ByteBuffer input, int srcOffset, int length, ByteBuffer output, int dstOffset) {
+		// Copies move 8 bytes at a time, which only preserves them if both sides use the same byte order
+		ByteBuffer src = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer dst = output.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int sp = srcOffset;
+		int srcEnd = srcOffset + length;
+		int dp = dstOffset;
+		int dstEnd = dst.capacity();
+		if(srcOffset < 0 || srcEnd > src.capacity() || srcEnd < srcOffset)
+			throw new NXException("Malformed LZ4 block.");
+		
+		while(sp < srcEnd) {
+			int token = src.get(sp++) & 0xFF;
+			
+			int literals = token >>> 4;
+			if(literals == 0xF) {
+				int b;
+				do {
+					if(sp >= srcEnd)
+						throw new NXException("Malformed LZ4 block.");
+					b = src.get(sp++) & 0xFF;
+					literals += b;
+				} while(b == 0xFF);
+			}
+			if(literals > srcEnd - sp || literals > dstEnd - dp)
+				throw new NXException("Malformed LZ4 block.");
+			copy(src, sp, dst, dp, literals);
+			sp += literals;
+			dp += literals;
+			
+			// The last sequence of a block only has literals
+			if(sp >= srcEnd)
+				break;
+			
+			if(srcEnd - sp < 2)
+				throw new NXException("Malformed LZ4 block.");
+			int distance = (src.get(sp++) & 0xFF) | (src.get(sp++) & 0xFF) << 8;
+			int match = token & 0xF;
+			if(match == 0xF) {
+				int b;
+				do {
+					if(sp >= srcEnd)
+						throw new NXException("Malformed LZ4 block.");
+					b = src.get(sp++) & 0xFF;
+					match += b;
+				} while(b == 0xFF);
+			}
+			match += MIN_MATCH;
+			
+			int ref = dp - distance;
+			if(distance == 0 || ref < dstOffset || match > dstEnd - dp)
+				throw new NXException("Malformed LZ4 block.");
+			if(distance >= 8) {
+				// Each 8 byte step only reads bytes that were written before it
+				copy(dst, ref, dst, dp, match);
+			} else {
+				for(int i = 0; i < match; i++)
+					dst.put(dp + i, dst.get(ref + i));
+			}
+			dp += match;
+		}
+		return dp - dstOffset;
+	}
+	
+	private static void copy(ByteBuffer src, int sp, ByteBuffer dst, int dp, int length) {
+		for(; length >= 8; length -= 8, sp += 8, dp += 8)
+			dst.putLong(dp, src.getLong(sp));
+		for(; length > 0; length--)
+			dst.put(dp++, src.get(sp++));
+	}
+	
+	/**
+	 * Decompresses a block between two arrays.
+	 * @return the number of decompressed bytes
+	 * @throws NXException if the block is malformed or doesn't fit in <code>maxLength</code> bytes;
+	 * no byte outside <code>src[srcOffset .. srcOffset + length)</code> is ever read
+	 */
+	public static int decompress(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, int maxLength) {
+		int sp = srcOffset;
+		int srcEnd = srcOffset + length;
+		int dp = dstOffset;
+		int dstEnd = dstOffset + maxLength;
+		
+		while(sp < srcEnd) {
+			int token = src[sp++] & 0xFF;
+			
+			int literals = token >>> 4;
+			if(literals == 0xF) {
+				int b;
+				do {
+					if(sp >= srcEnd)
+						throw new NXException("Malformed LZ4 block.");
+					b = src[sp++] & 0xFF;
+					literals += b;
+				} while(b == 0xFF);
+			}
+			if(literals > srcEnd - sp || literals > dstEnd - dp)
+				throw new NXException("Malformed LZ4 block.");
+			System.arraycopy(src, sp, dst, dp, literals);
+			sp += literals;
+			dp += literals;
+			
+			// The last sequence of a block only has literals
+			if(sp >= srcEnd)
+				break;
+			
+			if(srcEnd - sp < 2)
+				throw new NXException("Malformed LZ4 block.");
+			int distance = (src[sp++] & 0xFF) | (src[sp++] & 0xFF) << 8;
+			int match = token & 0xF;
+			if(match == 0xF) {
+				int b;
+				do {
+					if(sp >= srcEnd)
+						throw new NXException("Malformed LZ4 block.");
+					b = src[sp++] & 0xFF;
+					match += b;
+				} while(b == 0xFF);
+			}
+			match += MIN_MATCH;
+			
+			int ref = dp - distance;
+			if(distance == 0 || ref < dstOffset || match > dstEnd - dp)
+				throw new NXException("Malformed LZ4 block.");
+			if(distance >= match) {
+				System.arraycopy(dst, ref, dst, dp, match);
+			} else {
+				// Overlapping matches repeat the last distance bytes, so they have to be copied forwards
+				for(int i = 0; i < match; i++)
+					dst[dp + i] = dst[ref + i];
+			}
+			dp += match;
+		}
+		return dp - dstOffset;
+	}
+}
@@ -18,16 +18,14 @@
 
 package net.zepheus.nxjava;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 public class NXMP3Node extends NXNode {
 
-	private int mp3Id;
-	
-	public NXMP3Node(String name, NXNode parent, NXFile file, int childCount, int mp3Id) {
-		super(name, parent, file, childCount);
-		this.mp3Id = mp3Id;
+	public NXMP3Node(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
 	}
 	
 	@Override
@@ -36,11 +34,36 @@ public class NXMP3Node extends NXNode {
 	}
 	
 	public void play() {
-		InputStream stream = new ByteArrayInputStream(getMP3());
-		BinarySoundPlayer.play(stream);
+		BinarySoundPlayer.play(openStream());
 	}
 	
 	public byte[] getMP3() {
-		return file.getMP3(mp3Id);
+		return file.getMP3(getMP3Id());
+	}
+	
+	/**
+	 * Loads the MP3 without blocking the calling thread.
+	 * @see NXFile#getMP3Async(int)
+	 */
+	public CompletableFuture<byte[]> getMP3Async() {
+		return file.getMP3Async(getMP3Id());
+	}
+	
+	/**
+	 * Gets a read-only view of the MP3 data in the mapped file, without copying it.
+	 */
+	public ByteBuffer asByteBuffer() {
+		return file.getMP3Buffer(getMP3Id());
+	}
+	
+	/**
+	 * Opens a stream over the MP3 data in the mapped file, without copying it.
+	 */
+	public InputStream openStream() {
+		return new ByteBufferInputStream(asByteBuffer());
+	}
+	
+	public int getMP3Id() {
+		return readData(0);
 	}
 }
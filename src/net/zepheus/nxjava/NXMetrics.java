@@ -0,0 +1,310 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for a single file, enabled with {@link NXFile#setMetricsEnabled(boolean)}.
+ * While metrics are disabled the file does nothing but a null check per operation.
+ * The live values can be published as an MBean with {@link #register(String)} or copied with {@link #snapshot()}.
+ */
+public class NXMetrics implements NXMetricsMBean {
+	
+	private final NXFile file;
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder unloaded = new LongAdder();
+	private final LongAdder strings = new LongAdder();
+	private final LongAdder bitmaps = new LongAdder();
+	private final LongAdder decompressed = new LongAdder();
+	private final LongAdder mp3s = new LongAdder();
+	private final LongAdder lockAcquisitions = new LongAdder();
+	private final LongAdder lockWait = new LongAdder();
+	private final NXHistogram bitmapTime = new NXHistogram();
+	private final NXHistogram mp3Time = new NXHistogram();
+	
+	NXMetrics(NXFile file) {
+		this.file = file;
+	}
+	
+	void nodeMaterialized() {
+		nodes.increment();
+	}
+	
+	void nodesUnloaded(int count) {
+		unloaded.add(count);
+	}
+	
+	void stringDecoded() {
+		strings.increment();
+	}
+	
+	void bitmapDecoded(long bytes, long nanos) {
+		bitmaps.increment();
+		decompressed.add(bytes);
+		bitmapTime.record(nanos);
+	}
+	
+	void mp3Loaded(long nanos) {
+		mp3s.increment();
+		mp3Time.record(nanos);
+	}
+	
+	void lockAcquired(long nanos) {
+		lockAcquisitions.increment();
+		lockWait.add(nanos);
+	}
+	
+	public long getNodesMaterialized() {
+		return nodes.sum();
+	}
+	
+	public long getNodesUnloaded() {
+		return unloaded.sum();
+	}
+	
+	public long getStringsDecoded() {
+		return strings.sum();
+	}
+	
+	public long getBitmapsDecoded() {
+		return bitmaps.sum();
+	}
+	
+	public long getBytesDecompressed() {
+		return decompressed.sum();
+	}
+	
+	public long getMP3sLoaded() {
+		return mp3s.sum();
+	}
+	
+	public long getBitmapCacheHits() {
+		NXCache<?> cache = file.getBitmapCache();
+		return cache != null ? cache.getHitCount() : 0;
+	}
+	
+	public long getBitmapCacheMisses() {
+		NXCache<?> cache = file.getBitmapCache();
+		return cache != null ? cache.getMissCount() : 0;
+	}
+	
+	public long getMP3CacheHits() {
+		NXCache<?> cache = file.getMP3Cache();
+		return cache != null ? cache.getHitCount() : 0;
+	}
+	
+	public long getMP3CacheMisses() {
+		NXCache<?> cache = file.getMP3Cache();
+		return cache != null ? cache.getMissCount() : 0;
+	}
+	
+	public long getLockAcquisitions() {
+		return lockAcquisitions.sum();
+	}
+	
+	public long getLockWaitTime() {
+		return lockWait.sum();
+	}
+	
+	public NXHistogram getBitmapDecodeTimes() {
+		return bitmapTime;
+	}
+	
+	public NXHistogram getMP3LoadTimes() {
+		return mp3Time;
+	}
+	
+	public long getBitmapDecodeTimeMedian() {
+		return bitmapTime.getPercentile(50);
+	}
+	
+	public long getBitmapDecodeTime99thPercentile() {
+		return bitmapTime.getPercentile(99);
+	}
+	
+	public long getMP3LoadTimeMedian() {
+		return mp3Time.getPercentile(50);
+	}
+	
+	public long getMP3LoadTime99thPercentile() {
+		return mp3Time.getPercentile(99);
+	}
+	
+	/**
+	 * Resets the counters and histograms. The cache counters belong to the caches and are kept.
+	 */
+	public void reset() {
+		nodes.reset();
+		unloaded.reset();
+		strings.reset();
+		bitmaps.reset();
+		decompressed.reset();
+		mp3s.reset();
+		lockAcquisitions.reset();
+		lockWait.reset();
+		bitmapTime.reset();
+		mp3Time.reset();
+	}
+	
+	/**
+	 * Copies the current values. The copy isn't atomic, values that change meanwhile may be slightly apart.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+	
+	/**
+	 * Registers these metrics with the platform MBean server.
+	 * @param name the object name, e.g. <code>"net.zepheus.nxjava:type=NXFile,name=Data"</code>
+	 * @return the registered name
+	 * @throws NXException if the name is invalid or already taken
+	 */
+	public ObjectName register(String name) {
+		try {
+			ObjectName objectName = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new NXException("Could not register the metrics MBean: " + e.getMessage());
+		}
+	}
+	
+	public void unregister(ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			throw new NXException("Could not unregister the metrics MBean: " + e.getMessage());
+		}
+	}
+	
+	public static class Snapshot {
+		private final long nodesMaterialized;
+		private final long nodesUnloaded;
+		private final long stringsDecoded;
+		private final long bitmapsDecoded;
+		private final long bytesDecompressed;
+		private final long mp3sLoaded;
+		private final long bitmapCacheHits;
+		private final long bitmapCacheMisses;
+		private final long mp3CacheHits;
+		private final long mp3CacheMisses;
+		private final long lockAcquisitions;
+		private final long lockWaitTime;
+		private final long[] bitmapDecodeTimes;
+		private final long[] mp3LoadTimes;
+		
+		private Snapshot(NXMetrics metrics) {
+			nodesMaterialized = metrics.getNodesMaterialized();
+			nodesUnloaded = metrics.getNodesUnloaded();
+			stringsDecoded = metrics.getStringsDecoded();
+			bitmapsDecoded = metrics.getBitmapsDecoded();
+			bytesDecompressed = metrics.getBytesDecompressed();
+			mp3sLoaded = metrics.getMP3sLoaded();
+			bitmapCacheHits = metrics.getBitmapCacheHits();
+			bitmapCacheMisses = metrics.getBitmapCacheMisses();
+			mp3CacheHits = metrics.getMP3CacheHits();
+			mp3CacheMisses = metrics.getMP3CacheMisses();
+			lockAcquisitions = metrics.getLockAcquisitions();
+			lockWaitTime = metrics.getLockWaitTime();
+			bitmapDecodeTimes = metrics.bitmapTime.getCounts();
+			mp3LoadTimes = metrics.mp3Time.getCounts();
+		}
+		
+		public long getNodesMaterialized() {
+			return nodesMaterialized;
+		}
+		
+		public long getNodesUnloaded() {
+			return nodesUnloaded;
+		}
+		
+		public long getStringsDecoded() {
+			return stringsDecoded;
+		}
+		
+		public long getBitmapsDecoded() {
+			return bitmapsDecoded;
+		}
+		
+		public long getBytesDecompressed() {
+			return bytesDecompressed;
+		}
+		
+		public long getMP3sLoaded() {
+			return mp3sLoaded;
+		}
+		
+		public long getBitmapCacheHits() {
+			return bitmapCacheHits;
+		}
+		
+		public long getBitmapCacheMisses() {
+			return bitmapCacheMisses;
+		}
+		
+		public long getMP3CacheHits() {
+			return mp3CacheHits;
+		}
+		
+		public long getMP3CacheMisses() {
+			return mp3CacheMisses;
+		}
+		
+		public long getLockAcquisitions() {
+			return lockAcquisitions;
+		}
+		
+		public long getLockWaitTime() {
+			return lockWaitTime;
+		}
+		
+		/**
+		 * @return the bucket counts of the bitmap decode times, see {@link NXHistogram}
+		 */
+		public long[] getBitmapDecodeTimes() {
+			return bitmapDecodeTimes.clone();
+		}
+		
+		public long[] getMP3LoadTimes() {
+			return mp3LoadTimes.clone();
+		}
+		
+		public long getBitmapDecodeTimePercentile(double percentile) {
+			return NXHistogram.getPercentile(bitmapDecodeTimes, percentile);
+		}
+		
+		public long getMP3LoadTimePercentile(double percentile) {
+			return NXHistogram.getPercentile(mp3LoadTimes, percentile);
+		}
+		
+		@Override
+		public String toString() {
+			return "nodes=" + nodesMaterialized + " unloaded=" + nodesUnloaded + " strings=" + stringsDecoded
+					+ " bitmaps=" + bitmapsDecoded + " (" + bytesDecompressed + " bytes, p50 "
+					+ getBitmapDecodeTimePercentile(50) + "ns, p99 " + getBitmapDecodeTimePercentile(99) + "ns)"
+					+ " bitmap cache=" + bitmapCacheHits + "/" + bitmapCacheMisses
+					+ " mp3s=" + mp3sLoaded + " mp3 cache=" + mp3CacheHits + "/" + mp3CacheMisses
+					+ " lock=" + lockAcquisitions + " (" + lockWaitTime + "ns waiting)";
+		}
+	}
+}
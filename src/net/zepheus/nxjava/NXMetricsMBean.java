@@ -0,0 +1,59 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+/**
+ * The JMX view of {@link NXMetrics}. Durations are in nanoseconds.
+ */
+public interface NXMetricsMBean {
+	
+	long getNodesMaterialized();
+	
+	long getNodesUnloaded();
+	
+	long getStringsDecoded();
+	
+	long getBitmapsDecoded();
+	
+	long getBytesDecompressed();
+	
+	long getMP3sLoaded();
+	
+	long getBitmapCacheHits();
+	
+	long getBitmapCacheMisses();
+	
+	long getMP3CacheHits();
+	
+	long getMP3CacheMisses();
+	
+	long getLockAcquisitions();
+	
+	long getLockWaitTime();
+	
+	long getBitmapDecodeTimeMedian();
+	
+	long getBitmapDecodeTime99thPercentile();
+	
+	long getMP3LoadTimeMedian();
+	
+	long getMP3LoadTime99thPercentile();
+	
+	void reset();
+}
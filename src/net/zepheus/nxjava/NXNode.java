@@ -18,73 +18,296 @@
 
 package net.zepheus.nxjava;
 
-import java.util.HashMap;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public abstract class NXNode implements Iterable<NXNode> {
 
 	public static final int SIZE = 20;
+	
+	public static final int TYPE_EMPTY = 0;
+	public static final int TYPE_INTEGER = 1;
+	public static final int TYPE_DOUBLE = 2;
+	public static final int TYPE_STRING = 3;
+	public static final int TYPE_VECTOR = 4;
+	public static final int TYPE_CANVAS = 5;
+	public static final int TYPE_MP3 = 6;
 	private static final Iterator<NXNode> EMPTY_ITERATOR = new EmptyIterator<NXNode>();
+	private static final int LINEAR_SEARCH_LIMIT = 8;
+	private static final int REFERENCED = 0x80000000;
+	private static final AtomicReferenceFieldUpdater<NXNode, NXNode[]> CHILDREN =
+			AtomicReferenceFieldUpdater.newUpdater(NXNode.class, NXNode[].class, "children");
 	
-	protected String name;
-	protected NXNode parent;
-	protected NXFile file;
-	private int childCount;
-	private int firstChildId;
+	// Everything else is read from the node table on demand, which keeps a walk of the whole
+	// tree from holding a copy of every record and decoded name
+	protected final NXFile file;
+	protected final NXNode parent;
+	// The node id, with the sign bit set on every access to the children and cleared by the node
+	// budget's sweeps. Racing updates only ever differ in that bit, so no lock is needed, and
+	// packing it keeps the node at 32 bytes with compressed references.
+	private volatile int state;
 	
-	private Map<String, NXNode> children;
+	// Children in on-disk order, never modified once published
+	private volatile NXNode[] children;
+	// Open addressing table of (name hash, child index + 1) pairs, built for wide nodes only
+	private volatile int[] lookup;
 	
-	public NXNode(String name, NXNode parent, NXFile file, int childCount) {
-		this.name = name;
-		this.parent = parent;
+	public NXNode(NXFile file, NXNode parent, int id) {
 		this.file = file;
-		this.childCount = childCount;
+		this.parent = parent;
+		this.state = id;
 	}
 	
 	public abstract Object getValue();
+	
+	/**
+	 * Reads the value as an integer without boxing it. Integer nodes return their value, double
+	 * nodes their truncated value and string nodes their parsed value.
+	 * @param def the value returned when this node has no numeric value
+	 */
+	public long getLong(long def) {
+		return def;
+	}
+	
+	public int getInt(int def) {
+		return (int)getLong(def);
+	}
+	
+	/**
+	 * Reads the value as a double without boxing it, see {@link #getLong(long)}.
+	 * @param def the value returned when this node has no numeric value
+	 */
+	public double getDouble(double def) {
+		return def;
+	}
+	
+	/**
+	 * @param def the value returned when this isn't a vector node
+	 */
+	public int getVectorX(int def) {
+		return def;
+	}
+	
+	public int getVectorY(int def) {
+		return def;
+	}
+	
+	/**
+	 * Reads the value of a child, e.g. <code>getChildInt("speed", 0)</code>.
+	 * @param def the value returned when the child doesn't exist or has no numeric value
+	 */
+	public long getChildLong(String name, long def) {
+		NXNode child = getChild(name);
+		return child != null ? child.getLong(def) : def;
+	}
+	
+	public int getChildInt(String name, int def) {
+		NXNode child = getChild(name);
+		return child != null ? child.getInt(def) : def;
+	}
+	
+	public double getChildDouble(String name, double def) {
+		NXNode child = getChild(name);
+		return child != null ? child.getDouble(def) : def;
+	}
 
 	public NXNode getChild(String name) {
 		// it seems not calling hasChild here speeds things up
+		SeekableLittleEndianAccessor table = file.getNodeTable();
+		int childCount = readChildCount(table);
 		if(childCount == 0)
 			return null;
-		else if(children == null)
-			parseChildren();
 		
-		return children.get(name);
+		int index = indexOf(table, childCount, name);
+		return index < 0 ? null : getChildren()[index];
 	}
 	
-	private void parseChildren() {
-		children = new HashMap<String, NXNode>(childCount);
+	/**
+	 * Gets a child by its position in the file.
+	 * @param index the on-disk index of the child
+	 * @return the child, or <code>null</code> if there is no child at <code>index</code>
+	 */
+	public NXNode getChild(int index) {
+		if(index < 0 || index >= getChildCount())
+			return null;
 		
-		file.lock();
-		try {
-			SeekableLittleEndianAccessor slea = file.getNodeStream(firstChildId);
+		return getChildren()[index];
+	}
+	
+	/**
+	 * Finds a child by the hash of its name first, so the string table is only touched for
+	 * children whose name hash matches and the names of the other children are never decoded.
+	 */
+	private int indexOf(SeekableLittleEndianAccessor table, int childCount, String name) {
+		int firstChildId = readFirstChildId(table);
+		if(childCount <= LINEAR_SEARCH_LIMIT) {
 			for(int i = 0; i < childCount; i++) {
-				NXNode node = NXNodeParser.parse(slea, this, file);
-				children.put(node.getName(), node);
+				if(file.equalsString(getChildNameId(table, firstChildId, i), name))
+					return i;
+			}
+			return -1;
+		}
+		
+		int[] lookup = this.lookup;
+		if(lookup == null)
+			lookup = buildLookup(table, childCount, firstChildId);
+		
+		int hash = name.hashCode();
+		int mask = lookup.length - 2;
+		for(int slot = spread(hash) & mask; lookup[slot + 1] != 0; slot = (slot + 2) & mask) {
+			if(lookup[slot] == hash) {
+				int index = lookup[slot + 1] - 1;
+				if(file.equalsString(getChildNameId(table, firstChildId, index), name))
+					return index;
+			}
+		}
+		return -1;
+	}
+	
+	private int getChildNameId(SeekableLittleEndianAccessor table, int firstChildId, int index) {
+		return table.getInt(file.getNodePosition(firstChildId + index));
+	}
+	
+	private int[] buildLookup(SeekableLittleEndianAccessor table, int childCount, int firstChildId) {
+		// Threads racing here build equal tables, so whichever is published last is as good as any
+		// At most half full, with two ints per slot
+		int slots = Integer.highestOneBit(childCount * 2 - 1) << 1;
+		int[] pairs = new int[slots * 2];
+		int mask = pairs.length - 2;
+		for(int i = 0; i < childCount; i++) {
+			int hash = file.getStringHash(getChildNameId(table, firstChildId, i));
+			int slot = spread(hash) & mask;
+			while(pairs[slot + 1] != 0)
+				slot = (slot + 2) & mask;
+			pairs[slot] = hash;
+			pairs[slot + 1] = i + 1;
+		}
+		lookup = pairs;
+		return pairs;
+	}
+	
+	private static int spread(int hash) {
+		// Keeps the slot index even, since every slot holds a hash and an index
+		return (hash ^ (hash >>> 16)) << 1;
+	}
+	
+	private NXNode[] getChildren() {
+		int state = this.state;
+		if(state >= 0)
+			this.state = state | REFERENCED;
+		
+		NXNode[] nodes = children;
+		return nodes != null ? nodes : loadChildren();
+	}
+	
+	/**
+	 * Parses all children into a new array and publishes it with a compare-and-set, so readers
+	 * never take a lock and never see a partly filled array. When several threads race, the
+	 * first array published wins and the others are dropped.
+	 */
+	private NXNode[] loadChildren() {
+		SeekableLittleEndianAccessor table = file.getNodeTable();
+		int firstChildId = readFirstChildId(table);
+		NXNode[] nodes = new NXNode[readChildCount(table)];
+		for(int i = 0; i < nodes.length; i++)
+			nodes[i] = NXNodeParser.parse(file, firstChildId + i, this);
+		
+		if(file.getNodeBudget() == Integer.MAX_VALUE) {
+			while(!CHILDREN.compareAndSet(this, null, nodes)) {
+				NXNode[] current = children;
+				if(current != null)
+					return current;
+			}
+			// A budget set meanwhile may have walked the tree before these children were published
+			if(file.getNodeBudget() != Integer.MAX_VALUE) {
+				file.lock();
+				try {
+					if(children == nodes && !file.isInNodeBudget(this))
+						file.childrenLoaded(this, nodes.length);
+				} finally { file.unlock(); }
 			}
+			return nodes;
+		}
+		
+		// The budget is only touched with the file lock held, which also keeps the children from
+		// being unloaded between publishing and registering them
+		file.lock();
+		try {
+			if(!CHILDREN.compareAndSet(this, null, nodes))
+				return children;
+			file.childrenLoaded(this, nodes.length);
+			return nodes;
 		} finally { file.unlock(); }
 	}
 	
+	/**
+	 * Clears the access bit for a sweep of the node budget.
+	 * @return whether the children were accessed since the last sweep
+	 */
+	boolean clearReferenced() {
+		int state = this.state;
+		this.state = state & ~REFERENCED;
+		return state < 0;
+	}
+	
+	/**
+	 * Drops the materialized children, they are parsed again on their next access.
+	 * @return the number of child slots that were released
+	 */
+	int unloadChildren() {
+		NXNode[] nodes = children;
+		children = null;
+		lookup = null;
+		return nodes != null ? nodes.length : 0;
+	}
+	
+	/**
+	 * Registers this node and its materialized descendants with a node budget.
+	 */
+	void addLoaded(NXNodeBudget budget) {
+		NXNode[] nodes = children;
+		if(nodes == null)
+			return;
+		
+		budget.add(this, nodes.length);
+		for(NXNode child : nodes) {
+			if(child != null)
+				child.addLoaded(budget);
+		}
+	}
+	
 	public boolean hasChild(String name) {
+		SeekableLittleEndianAccessor table = file.getNodeTable();
+		int childCount = readChildCount(table);
 		if(childCount == 0)
 			return false;
-		else if(children == null)
-			parseChildren();
 		
-		return children.get(name) != null; //faster than containskey & we don't allow null values
+		return indexOf(table, childCount, name) >= 0;
 	}
 
+	/**
+	 * Decodes the images of all canvas children in parallel.
+	 * @return the images of the canvas children, in on-disk order
+	 */
+	public BufferedImage[] decodeAllCanvases() {
+		int count = 0;
+		int[] ids = new int[getChildCount()];
+		for(NXNode child : this) {
+			if(child instanceof NXCanvasNode)
+				ids[count++] = ((NXCanvasNode)child).getBitmapId();
+		}
+		return file.getBitmaps(Arrays.copyOf(ids, count));
+	}
+	
 	@Override
 	public Iterator<NXNode> iterator() {
-		if(childCount == 0)
+		if(getChildCount() == 0)
 			return EMPTY_ITERATOR;
-		else if(children == null)
-			parseChildren();
 		
-		return children.values().iterator();
+		// The array is never written to after it's published, so it can be iterated as is
+		return Arrays.asList(getChildren()).iterator();
 	}
 	
 	@Override
@@ -92,17 +315,39 @@ public abstract class NXNode implements Iterable<NXNode> {
 		return getName();
 	}
 	
-	//TODO: remove this hack in PKG4
-	public void setFirstChildId(int id){
-		this.firstChildId = id;
+	/**
+	 * Reads an int from the data field of this node's record, at <code>offset</code> bytes into it.
+	 */
+	int readData(int offset) {
+		return file.getNodeTable().getInt(file.getNodePosition(getId()) + 8 + offset);
+	}
+	
+	double readDoubleData() {
+		return file.getNodeTable().getDouble(file.getNodePosition(getId()) + 8);
+	}
+	
+	private int readChildCount(SeekableLittleEndianAccessor table) {
+		return table.getUShort(file.getNodePosition(getId()) + 4);
+	}
+	
+	private int readFirstChildId(SeekableLittleEndianAccessor table) {
+		//TODO: childcount should come after type, not after data!
+		return table.getInt(file.getNodePosition(getId()) + 16);
 	}
 
 	public static int getSize() {
 		return SIZE;
 	}
 
+	/**
+	 * Gets the id of this node, its index in the node table.
+	 */
+	public int getId() {
+		return state & ~REFERENCED;
+	}
+
 	public String getName() {
-		return name;
+		return file.getString(file.getNodeTable().getInt(file.getNodePosition(getId())));
 	}
 
 	public NXNode getParent() {
@@ -114,6 +359,6 @@ public abstract class NXNode implements Iterable<NXNode> {
 	}
 
 	public int getChildCount() {
-		return childCount;
+		return readChildCount(file.getNodeTable());
 	}
 }
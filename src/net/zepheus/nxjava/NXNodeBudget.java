@@ -0,0 +1,90 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+/**
+ * Limits the number of child slots held by materialized nodes. Once the total exceeds the budget,
+ * nodes whose children weren't accessed since the last sweep drop them (second chance / CLOCK);
+ * dropped children are parsed again from the node table on their next access.
+ * All methods are called with the file lock held.
+ */
+class NXNodeBudget {
+	
+	private final NXClock<NXNode> nodes = new NXClock<NXNode>() {
+		@Override
+		protected boolean isOverLimit() {
+			return weight > capacity;
+		}
+		
+		@Override
+		protected boolean clearReferenced(NXNode node) {
+			return node.clearReferenced();
+		}
+		
+		@Override
+		protected void evicted(NXNode node) {
+			weight -= node.unloadChildren();
+		}
+	};
+	private int capacity;
+	private long weight;
+	
+	NXNodeBudget(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	void add(NXNode node, int childCount) {
+		nodes.add(node);
+		weight += childCount;
+	}
+	
+	/**
+	 * Only used when a budget raced with publishing children, so a linear scan is fine.
+	 */
+	boolean contains(NXNode node) {
+		return nodes.contains(node);
+	}
+	
+	/**
+	 * Unloads nodes until the budget is met.
+	 * @return the number of nodes that were unloaded
+	 */
+	int trim() {
+		return nodes.sweep();
+	}
+	
+	void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	int getCapacity() {
+		return capacity;
+	}
+	
+	long getWeight() {
+		return weight;
+	}
+	
+	void clear() {
+		for(int i = 0; i < nodes.size(); i++)
+			nodes.get(i).unloadChildren();
+		nodes.clear();
+		weight = 0;
+	}
+}
@@ -20,59 +20,61 @@ package net.zepheus.nxjava;
 
 public class NXNodeParser {
 	
+	/**
+	 * Parses the node at the position of <code>slea</code>, which must be a stream over the node
+	 * table such as one from {@link NXFile#getNodeStream(int)}, and moves past it.
+	 */
 	public static NXNode parse(SeekableLittleEndianAccessor slea, NXNode parent, NXFile file) {
-		int stringId = slea.getInt();
-		String name = file.getString(stringId);
-		int childCount = slea.getUShort();
-		int type = slea.getUShort(); //TODO: byte!
-		//TODO: childcount should come after type, not after data!
-		//We'll use a temporary setter as a hack for now
+		NXNode ret = parse(slea, slea.getPosition(), parent, file);
+		slea.skip(NXNode.SIZE);
+		return ret;
+	}
+	
+	public static NXNode parse(NXFile file, int id, NXNode parent) {
+		SeekableLittleEndianAccessor slea = file.getNodeTable();
+		int type = slea.getUShort(file.getNodePosition(id) + 6); //TODO: byte!
 		
+		// The nodes only hold their id, everything else is read from the table when it's needed
 		NXNode ret = null;
 		switch(type) {
-		case 0:
-			slea.skip(8);
-			ret = new NXEmptyNode(name, parent, file, childCount);
+		case NXNode.TYPE_EMPTY:
+			ret = new NXEmptyNode(file, parent, id);
 			break;
 			
-		case 1:
-			long ivalue = slea.getUInt();
-			slea.skip(4);
-			ret = new NXIntegerNode(name, parent, file, childCount, ivalue);
+		case NXNode.TYPE_INTEGER:
+			ret = new NXIntegerNode(file, parent, id);
 			break;
-		case 2:
-			double dvalue = slea.getDouble();
-			ret = new NXDoubleNode(name, parent, file, childCount, dvalue);
+		case NXNode.TYPE_DOUBLE:
+			ret = new NXDoubleNode(file, parent, id);
 			break;
-		case 3:
-			int spointer = slea.getInt();
-			slea.skip(4);
-			ret = new NXStringNode(name, parent, file, childCount, spointer);
+		case NXNode.TYPE_STRING:
+			ret = new NXStringNode(file, parent, id);
 			break;
-		case 4:
-			int xval = slea.getInt();
-			int yval = slea.getInt();
-			ret = new NXVectorNode(name, parent, file, childCount, xval, yval);
+		case NXNode.TYPE_VECTOR:
+			ret = new NXVectorNode(file, parent, id);
 			break;
-		case 5:
-			int bitmapId = slea.getInt();
-			slea.skip(4);
-			ret = new NXCanvasNode(name, parent, file, childCount, bitmapId);
+		case NXNode.TYPE_CANVAS:
+			ret = new NXCanvasNode(file, parent, id);
 			break;
 		
-		case 6:
-			int mp3Id = slea.getInt();
-			slea.skip(4);
-			ret = new NXMP3Node(name, parent, file, childCount, mp3Id);
+		case NXNode.TYPE_MP3:
+			ret = new NXMP3Node(file, parent, id);
 			break;
 		
 		default:
-			slea.skip(8);
-			break;
+			throw new NXException("Unknown node type " + type + " for node " + id);
 		}
 		
-		int firstChildId = slea.getInt();
-		ret.setFirstChildId(firstChildId);
+		NXMetrics metrics = file.getMetrics();
+		if(metrics != null)
+			metrics.nodeMaterialized();
 		return ret;
 	}
+	
+	/**
+	 * Parses the node at <code>offset</code> in the node table, see {@link #parse(SeekableLittleEndianAccessor, NXNode, NXFile)}.
+	 */
+	public static NXNode parse(SeekableLittleEndianAccessor slea, long offset, NXNode parent, NXFile file) {
+		return parse(file, file.getNodeId(offset), parent);
+	}
 }
@@ -0,0 +1,118 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A path that is split and prepared once, so it can be resolved repeatedly without parsing.
+ * A compiled path remembers the node it last resolved to, which makes resolving it again
+ * against the same file a single field read.
+ */
+public final class NXPath {
+	
+	public static final char SEPARATOR = '/';
+	
+	private final String[] segments;
+	private final String[] prefixes;
+	private volatile Resolution last;
+	
+	private NXPath(String[] segments) {
+		this.segments = segments;
+		this.prefixes = new String[segments.length];
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < segments.length; i++) {
+			if(i > 0)
+				builder.append(SEPARATOR);
+			builder.append(segments[i]);
+			prefixes[i] = builder.toString();
+		}
+	}
+	
+	/**
+	 * Compiles a path of the form <code>"Effect/BasicEff.img/LevelUp/5/origin"</code>.
+	 * Empty segments are ignored, so an empty string compiles to the root.
+	 */
+	public static NXPath compile(String path) {
+		List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for(int i = 0; i <= path.length(); i++) {
+			if(i == path.length() || path.charAt(i) == SEPARATOR) {
+				if(i > start)
+					segments.add(path.substring(start, i));
+				start = i + 1;
+			}
+		}
+		return new NXPath(segments.toArray(new String[segments.size()]));
+	}
+	
+	/**
+	 * Compiles a path from its segments.
+	 * @throws NXException if a segment contains the separator; resolved paths are cached by their
+	 * joined form, so such a segment would share a cache entry with a different path
+	 */
+	public static NXPath compile(String... segments) {
+		for(String segment : segments) {
+			if(segment.indexOf(SEPARATOR) >= 0)
+				throw new NXException("Path segment contains '" + SEPARATOR + "': " + segment);
+		}
+		return new NXPath(segments.clone());
+	}
+	
+	public NXNode resolve(NXFile file) {
+		Resolution resolution = last;
+		if(resolution != null && resolution.file == file)
+			return resolution.node;
+		
+		NXNode node = file.resolvePath(this);
+		last = new Resolution(file, node);
+		return node;
+	}
+	
+	public int getLength() {
+		return segments.length;
+	}
+	
+	public String getSegment(int index) {
+		return segments[index];
+	}
+	
+	/**
+	 * Gets the joined path of the first <code>index + 1</code> segments, used as the cache key.
+	 */
+	String getPrefix(int index) {
+		return prefixes[index];
+	}
+	
+	@Override
+	public String toString() {
+		return segments.length == 0 ? "" : prefixes[segments.length - 1];
+	}
+	
+	private static class Resolution {
+		private final NXFile file;
+		private final NXNode node;
+		
+		private Resolution(NXFile file, NXNode node) {
+			this.file = file;
+			this.node = node;
+		}
+	}
+}
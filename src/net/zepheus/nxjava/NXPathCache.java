@@ -0,0 +1,119 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded map from joined paths to resolved nodes. Lookups never lock; once the cache
+ * grows past its capacity, entries that weren't used since the hand last passed them are
+ * evicted (second chance / CLOCK), so hot paths and their shared parents stay resident.
+ * Insertions and evictions are synchronized.
+ */
+class NXPathCache {
+	
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final NXClock<Entry> clock = new NXClock<Entry>() {
+		@Override
+		protected boolean isOverLimit() {
+			return size() > capacity;
+		}
+		
+		@Override
+		protected boolean clearReferenced(Entry entry) {
+			if(!entry.referenced)
+				return false;
+			entry.referenced = false;
+			return true;
+		}
+		
+		@Override
+		protected void evicted(Entry entry) {
+			entries.remove(entry.path, entry);
+		}
+		
+		@Override
+		protected void moved(Entry entry, int slot) {
+			entry.slot = slot;
+		}
+	};
+	private volatile int capacity;
+	
+	NXPathCache(int capacity) {
+		this.capacity = capacity;
+	}
+	
+	NXNode get(String path) {
+		Entry entry = entries.get(path);
+		if(entry == null)
+			return null;
+		
+		if(!entry.referenced)
+			entry.referenced = true;
+		return entry.node;
+	}
+	
+	synchronized void put(String path, NXNode node) {
+		if(capacity <= 0)
+			return;
+		
+		Entry entry = new Entry(path, node);
+		Entry previous = entries.put(path, entry);
+		if(previous != null) {
+			clock.set(previous.slot, entry);
+		} else {
+			clock.add(entry);
+			clock.sweep();
+		}
+	}
+	
+	synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		if(capacity <= 0)
+			clear();
+		else
+			clock.sweep();
+	}
+	
+	int getCapacity() {
+		return capacity;
+	}
+	
+	int size() {
+		return entries.size();
+	}
+	
+	synchronized void clear() {
+		entries.clear();
+		clock.clear();
+	}
+	
+	private static class Entry {
+		private final String path;
+		private final NXNode node;
+		private volatile boolean referenced;
+		// Only touched with the cache's lock held
+		private int slot;
+		
+		private Entry(String path, NXNode node) {
+			this.path = path;
+			this.node = node;
+		}
+	}
+}
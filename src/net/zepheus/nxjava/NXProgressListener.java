@@ -0,0 +1,35 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+/**
+ * Receives progress while a file is warmed up, see {@link NXFile#warmUp(NXProgressListener)}.
+ * The stages run in parallel, so implementations may be called from several threads at once.
+ */
+public interface NXProgressListener {
+	
+	/**
+	 * Called as a stage advances, and once more when it completes.
+	 * @param stage the read mode being applied: <code>EAGER_PARSE_FILE</code>,
+	 * <code>EAGER_PARSE_CANVAS</code> or <code>EAGER_PARSE_MP3</code>
+	 * @param done the number of nodes, canvases or sounds loaded so far
+	 * @param total the number of nodes, canvases or sounds in the stage
+	 */
+	void progress(NXReadMode stage, int done, int total);
+}
@@ -20,10 +20,26 @@ package net.zepheus.nxjava;
 
 public enum NXReadMode {
 	NONE,
+	/** Copies the string table onto the heap on open instead of reading it from the mapping. */
 	EAGER_PARSE_STRINGS,
+	/** Loads every sound into the MP3 cache on open. */
 	EAGER_PARSE_MP3,
+	/** Decodes every canvas into the bitmap cache on open. */
 	EAGER_PARSE_CANVAS,
+	/** Never decodes canvases; canvas nodes have no value and loading their images fails. */
 	NEVER_PARSE_CANVAS,
+	/** Keeps as little as possible on the heap and caches nothing. */
 	LOW_MEMORY,
-	EAGER_PARSE_FILE
+	/** Materializes the whole node tree on open. */
+	EAGER_PARSE_FILE,
+	/**
+	 * Reads the string offsets, string hashes and canvas dimensions from an index next to the file
+	 * (<code>&lt;file&gt;.idx</code>), and creates the index when it's missing or stale. Only files
+	 * opened by path can have an index.
+	 */
+	SIDECAR_INDEX,
+	/** Reads the node table from the mapped file instead of copying it onto the heap. */
+	MAPPED_NODES,
+	/** Loads the pages of the node table in parallel on open, before the nodes are first read. */
+	PRELOAD_NODES
 }
@@ -0,0 +1,94 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads large regions of a file in parallel chunks, so loading them is bounded by the disk
+ * rather than by a single thread faulting in one page after the other.
+ */
+class NXRegionLoader {
+	
+	private static final int CHUNK_SIZE = 16 << 20;
+	
+	/**
+	 * Faults the pages of a region into memory. Every chunk is mapped separately and loaded with
+	 * <code>MappedByteBuffer.load()</code>; the mappings share the page cache with the file's own.
+	 */
+	static void load(final FileChannel channel, long offset, long length, ForkJoinPool pool) {
+		pool.invoke(new ChunkTask(offset, length) {
+			@Override
+			void process(long offset, int length) {
+				try {
+					channel.map(FileChannel.MapMode.READ_ONLY, offset, length).load();
+				} catch (IOException e) {
+					throw new NXException("Could not load the file: " + e.getMessage());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Copies a region into an array, every chunk on its own thread.
+	 */
+	static byte[] copy(final SeekableLittleEndianAccessor slea, final long offset, int length, ForkJoinPool pool) {
+		final byte[] array = new byte[length];
+		pool.invoke(new ChunkTask(offset, length) {
+			@Override
+			void process(long start, int length) {
+				ByteBuffer chunk = slea.slice(start, length);
+				chunk.get(array, (int)(start - offset), length);
+			}
+		});
+		return array;
+	}
+	
+	private static abstract class ChunkTask extends RecursiveAction {
+		private final long offset, length;
+		
+		private ChunkTask(long offset, long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		abstract void process(long offset, int length);
+		
+		@Override
+		protected void compute() {
+			int chunks = (int)((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			RecursiveAction[] actions = new RecursiveAction[chunks];
+			for(int i = 0; i < chunks; i++) {
+				final long start = offset + (long)i * CHUNK_SIZE;
+				final int size = (int)Math.min(CHUNK_SIZE, offset + length - start);
+				actions[i] = new RecursiveAction() {
+					@Override
+					protected void compute() {
+						process(start, size);
+					}
+				};
+			}
+			invokeAll(actions);
+		}
+	}
+}
@@ -20,15 +20,39 @@ package net.zepheus.nxjava;
 
 public class NXStringNode extends NXNode {
 
-	private String value;
-	public NXStringNode(String name, NXNode parent, NXFile file, int childCount, int id) {
-		super(name, parent, file, childCount);
-		this.value = file.getString(id);
+	public NXStringNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
+	}
+	
+	/**
+	 * Gets the id of the value in the string table.
+	 */
+	public int getStringId() {
+		return readData(0);
+	}
+	
+	@Override
+	public long getLong(long def) {
+		try {
+			return Long.parseLong(getValue());
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+	
+	@Override
+	public double getDouble(double def) {
+		try {
+			return Double.parseDouble(getValue());
+		} catch (NumberFormatException e) {
+			return def;
+		}
 	}
 	
 	@Override
 	public String getValue()
 	{
-		return value;
+		// Decoded on first use, the file then keeps the decoded string
+		return file.getString(getStringId());
 	}
 }
@@ -0,0 +1,174 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the offsets of all strings in the string table. Strings are only length-prefixed, so
+ * the table can't be split at known boundaries. Instead the table is cut into chunks and every
+ * chunk but the first is scanned speculatively, starting at the first offset followed by a run of
+ * plausible lengths. Chaining the chunks in order,
+ * each chunk is entered at the offset the previous one ended on; when the speculative scan passed
+ * that offset too, it has been in step ever since and its results are used as they are, otherwise
+ * the chunk is scanned again from the real offset.
+ */
+class NXStringScanner {
+	
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	// Two text bytes read as a length are at least 0x2020, so a run of shorter lengths is most likely real
+	private static final int PLAUSIBLE_LENGTH = 0x2000;
+	private static final int PLAUSIBLE_RUN = 8;
+	
+	private final SeekableLittleEndianAccessor slea;
+	private final long base;
+	private final long length;
+	private final int count;
+	
+	private NXStringScanner(SeekableLittleEndianAccessor slea, long base, long length, int count) {
+		this.slea = slea;
+		this.base = base;
+		this.length = length;
+		this.count = count;
+	}
+	
+	/**
+	 * @param base the offset of the string table
+	 * @param length an upper bound of the size of the string table, e.g. the distance to the next section
+	 * @param count the number of strings
+	 * @return the offset of every string, relative to <code>base</code>
+	 */
+	static int[] scan(SeekableLittleEndianAccessor slea, long base, long length, int count, ForkJoinPool pool) {
+		NXStringScanner scanner = new NXStringScanner(slea, base, length, count);
+		int chunks = (int)Math.min(pool.getParallelism() * 4L, length / MIN_CHUNK_SIZE);
+		if(pool.getParallelism() < 2 || chunks < 2 || length > Integer.MAX_VALUE)
+			return scanner.scanSequential();
+		return scanner.scanParallel(chunks, pool);
+	}
+	
+	private int[] scanSequential() {
+		int[] offsets = new int[count];
+		long offset = 0;
+		for(int i = 0; i < count; i++) {
+			if(offset > 0xFFFFFFFFL)
+				throw new NXException("The string table is too large.");
+			offsets[i] = (int)offset;
+			offset += slea.getUShort(base + offset) + 2;
+		}
+		return offsets;
+	}
+	
+	private int[] scanParallel(int chunks, ForkJoinPool pool) {
+		long size = length / chunks;
+		ChunkTask[] tasks = new ChunkTask[chunks];
+		for(int i = 1; i < chunks; i++)
+			tasks[i] = new ChunkTask(i * size, i == chunks - 1 ? length : (i + 1) * size);
+		pool.invoke(new Fork(tasks));
+		
+		int[] offsets = new int[count];
+		int found = 0;
+		long offset = 0;
+		for(int i = 0; i < chunks && found < count; i++) {
+			long end = i == chunks - 1 ? length : (i + 1) * size;
+			ChunkTask task = tasks[i];
+			int start = task != null ? Arrays.binarySearch(task.offsets, 0, task.found, (int)offset) : -1;
+			if(start >= 0) {
+				int copied = Math.min(task.found - start, count - found);
+				System.arraycopy(task.offsets, start, offsets, found, copied);
+				found += copied;
+				offset = task.next;
+			} else {
+				while(offset < end && found < count) {
+					offsets[found++] = (int)offset;
+					offset += slea.getUShort(base + offset) + 2;
+				}
+			}
+		}
+		// The length is only a bound, but strings past it would still be found here
+		while(found < count) {
+			if(offset > Integer.MAX_VALUE)
+				throw new NXException("The string table is too large.");
+			offsets[found++] = (int)offset;
+			offset += slea.getUShort(base + offset) + 2;
+		}
+		return offsets;
+	}
+	
+	private boolean isPlausible(long offset) {
+		for(int i = 0; i < PLAUSIBLE_RUN && offset + 2 <= length; i++) {
+			int size = slea.getUShort(base + offset);
+			if(size >= PLAUSIBLE_LENGTH)
+				return false;
+			offset += size + 2;
+		}
+		return true;
+	}
+	
+	private class ChunkTask extends RecursiveAction {
+		private final long start, end;
+		private int[] offsets;
+		private int found;
+		private long next;
+		
+		private ChunkTask(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			long offset = start;
+			while(offset < end && !isPlausible(offset))
+				offset++;
+			
+			SeekableLittleEndianAccessor slea = NXStringScanner.this.slea;
+			long base = NXStringScanner.this.base;
+			// Stops where a length prefix would be cut off by the end of the table
+			long limit = Math.min(end, length - 1);
+			int[] list = new int[1024];
+			int n = 0;
+			while(offset < limit && n < count) {
+				if(n == list.length)
+					list = Arrays.copyOf(list, n * 2);
+				list[n++] = (int)offset;
+				offset += slea.getUShort(base + offset) + 2;
+			}
+			offsets = list;
+			found = n;
+			next = offset;
+		}
+	}
+	
+	private static class Fork extends RecursiveAction {
+		private final ChunkTask[] tasks;
+		
+		private Fork(ChunkTask[] tasks) {
+			this.tasks = tasks;
+		}
+		
+		@Override
+		protected void compute() {
+			RecursiveAction[] actions = new RecursiveAction[tasks.length - 1];
+			System.arraycopy(tasks, 1, actions, 0, actions.length);
+			invokeAll(actions);
+		}
+	}
+}
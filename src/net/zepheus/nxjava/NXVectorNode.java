@@ -22,25 +22,31 @@ import java.awt.Point; //fuckage
 
 public class NXVectorNode extends NXNode {
 	
-	private int x, y;
-	
-	public NXVectorNode(String name, NXNode parent, NXFile file, int childCount, int x, int y) {
-		super(name, parent, file, childCount);
-		this.x = x;
-		this.y = y;
+	public NXVectorNode(NXFile file, NXNode parent, int id) {
+		super(file, parent, id);
 	}
 	
 	@Override
 	public Object getValue()
 	{
-		return new Point(x, y);
+		return new Point(getX(), getY());
+	}
+	
+	@Override
+	public int getVectorX(int def) {
+		return getX();
+	}
+	
+	@Override
+	public int getVectorY(int def) {
+		return getY();
 	}
 	
 	public int getX() {
-		return x;
+		return readData(0);
 	}
 	
 	public int getY() {
-		return y;
+		return readData(4);
 	}
 }
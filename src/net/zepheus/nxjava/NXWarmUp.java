@@ -0,0 +1,129 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies the eager read modes of a file: loads the node table, materializes the node tree,
+ * decodes every canvas and loads every sound, each stage spread over the file's decode pool.
+ */
+final class NXWarmUp {
+	
+	private NXWarmUp() {}
+	
+	static void run(NXFile file, EnumSet<NXReadMode> modes, NXProgressListener listener) {
+		ForkJoinPool pool = file.getDecodePool();
+		NXHeader header = file.getHeader();
+		
+		if(modes.contains(NXReadMode.PRELOAD_NODES))
+			file.getNodeTable();
+		if(modes.contains(NXReadMode.EAGER_PARSE_FILE)) {
+			Progress progress = new Progress(NXReadMode.EAGER_PARSE_FILE, header.getNodeCount(), listener);
+			progress.add(1);
+			pool.invoke(new NodeTask(file.getRoot(), progress));
+		}
+		// Decoded canvases and sounds are kept in the caches, so there's no point without them
+		if(modes.contains(NXReadMode.EAGER_PARSE_CANVAS) && !modes.contains(NXReadMode.NEVER_PARSE_CANVAS)
+				&& file.getBitmapCache() != null) {
+			Progress progress = new Progress(NXReadMode.EAGER_PARSE_CANVAS, header.getBmpCount(), listener);
+			pool.invoke(new LoadTask(file, progress, 0, header.getBmpCount()));
+		}
+		if(modes.contains(NXReadMode.EAGER_PARSE_MP3) && file.getMP3Cache() != null) {
+			Progress progress = new Progress(NXReadMode.EAGER_PARSE_MP3, header.getMp3Count(), listener);
+			pool.invoke(new LoadTask(file, progress, 0, header.getMp3Count()));
+		}
+	}
+	
+	private static class Progress {
+		private final NXReadMode stage;
+		private final int total;
+		private final NXProgressListener listener;
+		private final AtomicInteger done = new AtomicInteger();
+		
+		private Progress(NXReadMode stage, int total, NXProgressListener listener) {
+			this.stage = stage;
+			this.total = total;
+			this.listener = listener;
+		}
+		
+		private void add(int count) {
+			int after = done.addAndGet(count);
+			if(listener == null)
+				return;
+			// Report at most once per percent
+			long before = after - count;
+			if(after == total || before * 100 / total != (long)after * 100 / total)
+				listener.progress(stage, after, total);
+		}
+	}
+	
+	private static class NodeTask extends RecursiveAction {
+		private final NXNode node;
+		private final Progress progress;
+		
+		private NodeTask(NXNode node, Progress progress) {
+			this.node = node;
+			this.progress = progress;
+		}
+		
+		@Override
+		protected void compute() {
+			List<NodeTask> subtasks = new ArrayList<NodeTask>();
+			for(NXNode child : node) {
+				if(child.getChildCount() > 0)
+					subtasks.add(new NodeTask(child, progress));
+			}
+			progress.add(node.getChildCount());
+			invokeAll(subtasks);
+		}
+	}
+	
+	private static class LoadTask extends RecursiveAction {
+		private final NXFile file;
+		private final Progress progress;
+		private final int start, end;
+		
+		private LoadTask(NXFile file, Progress progress, int start, int end) {
+			this.file = file;
+			this.progress = progress;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start > 1) {
+				int mid = (start + end) >>> 1;
+				invokeAll(new LoadTask(file, progress, start, mid), new LoadTask(file, progress, mid, end));
+			} else if(end > start) {
+				if(progress.stage == NXReadMode.EAGER_PARSE_CANVAS)
+					file.getBitmap(start);
+				else
+					file.getMP3(start);
+				progress.add(1);
+			}
+		}
+	}
+}
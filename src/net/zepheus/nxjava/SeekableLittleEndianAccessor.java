@@ -21,11 +21,9 @@ package net.zepheus.nxjava;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 
 public class SeekableLittleEndianAccessor {
-	private static final String EMPTY = "";
-	private static final CharsetDecoder utfDecoder = Charset.forName("UTF-8").newDecoder();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	private final ByteBuffer byteBuffer;
 	
 	/**
@@ -52,6 +50,14 @@ public class SeekableLittleEndianAccessor {
 		return this.byteBuffer;
 	}
 	
+	/**
+	 * Creates a new accessor sharing this accessor's content but with its own position.
+	 * @return an independent accessor over the same bytes
+	 */
+	public SeekableLittleEndianAccessor duplicate() {
+		return new SeekableLittleEndianAccessor(byteBuffer.duplicate());
+	}
+	
 	/**
 	 * Gets the current position of this accessor.
 	 * @return the current position of this accessor
@@ -60,6 +66,14 @@ public class SeekableLittleEndianAccessor {
 		return this.byteBuffer.position();
 	}
 	
+	/**
+	 * Gets the current position of this accessor as a long, which also works past 2GB.
+	 * @return the current position of this accessor
+	 */
+	public long getPosition() {
+		return this.byteBuffer.position();
+	}
+	
 	/**
 	 * Gets the next byte from the buffer.
 	 * @return the next <code>byte</code> in the buffer
@@ -116,7 +130,7 @@ public class SeekableLittleEndianAccessor {
 	 * @return the next unsigned integer in the buffer
 	 */
 	public long getUInt() {
-		return byteBuffer.getInt() & 0xFFFFFFFF;
+		return byteBuffer.getInt() & 0xFFFFFFFFL;
 	}
 	
 	/**
@@ -156,6 +170,124 @@ public class SeekableLittleEndianAccessor {
 		return SeekableLittleEndianAccessor.getUTF(this, length);
 	}
 	
+	/**
+	 * Gets the byte at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>byte</code> at <code>offset</code>
+	 */
+	public byte getByte(long offset) {
+		return byteBuffer.get(index(offset));
+	}
+	
+	/**
+	 * Gets the unsigned byte at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the unsigned byte at <code>offset</code>
+	 */
+	public int getUByte(long offset) {
+		return byteBuffer.get(index(offset)) & 0xFF;
+	}
+	
+	/**
+	 * Gets the short integer at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>short</code> at <code>offset</code>
+	 */
+	public short getShort(long offset) {
+		return byteBuffer.getShort(index(offset));
+	}
+	
+	/**
+	 * Gets the unsigned short integer at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the unsigned short integer at <code>offset</code>
+	 */
+	public int getUShort(long offset) {
+		return byteBuffer.getShort(index(offset)) & 0xFFFF;
+	}
+	
+	/**
+	 * Gets the integer at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>int</code> at <code>offset</code>
+	 */
+	public int getInt(long offset) {
+		return byteBuffer.getInt(index(offset));
+	}
+	
+	/**
+	 * Gets the unsigned integer at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the unsigned integer at <code>offset</code>
+	 */
+	public long getUInt(long offset) {
+		return byteBuffer.getInt(index(offset)) & 0xFFFFFFFFL;
+	}
+	
+	/**
+	 * Gets the long integer at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>long</code> at <code>offset</code>
+	 */
+	public long getLong(long offset) {
+		return byteBuffer.getLong(index(offset));
+	}
+	
+	/**
+	 * Gets the floating-point decimal at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>float</code> at <code>offset</code>
+	 */
+	public float getFloat(long offset) {
+		return byteBuffer.getFloat(index(offset));
+	}
+	
+	/**
+	 * Gets the double-precision decimal at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @return the <code>double</code> at <code>offset</code>
+	 */
+	public double getDouble(long offset) {
+		return byteBuffer.getDouble(index(offset));
+	}
+	
+	/**
+	 * Gets the specified <code>number</code> of bytes at the specified offset without moving the position.
+	 * @param offset the absolute offset to read from
+	 * @param number the amount of bytes to get
+	 * @return an array of bytes containing the <code>number</code> bytes at <code>offset</code>
+	 */
+	public byte[] getBytes(long offset, int number) {
+		byte[] ret = new byte[number];
+		ByteBuffer view = byteBuffer.duplicate();
+		view.position(index(offset));
+		view.get(ret);
+		return ret;
+	}
+	
+	/**
+	 * Gets a little endian view of the specified range, starting at position 0 of the returned buffer.
+	 * The view shares the underlying bytes whenever possible.
+	 * @param offset the absolute offset of the range
+	 * @param length the length of the range
+	 * @return a buffer holding the <code>length</code> bytes at <code>offset</code>
+	 */
+	public ByteBuffer slice(long offset, int length) {
+		ByteBuffer view = byteBuffer.duplicate();
+		view.position(index(offset));
+		view.limit(view.position() + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Gets the length-prefixed UTF-8 string at the specified offset without moving the position.
+	 * @param offset the absolute offset of the string's length prefix
+	 * @return the string at <code>offset</code>
+	 */
+	public String getUTF(long offset) {
+		return new String(getBytes(offset + 2, getUShort(offset)), UTF8);
+	}
+	
 	/**
 	 * Skips ahead in the buffer by the specified amount.
 	 * @param amount the amount to skip ahead by
@@ -170,10 +302,14 @@ public class SeekableLittleEndianAccessor {
 	 * @throws NXException if the offset is greater than <code>Integer.MAX_VALUE</code>
 	 */
 	public void seek(long offset) {
+		byteBuffer.position(index(offset));
+	}
+	
+	private static int index(long offset) {
 		if (offset > Integer.MAX_VALUE) {
 			throw new RuntimeException("Unable to seek to the specified offset due to integer limitations.");
 		}
-		byteBuffer.position((int) offset);
+		return (int) offset;
 	}
 	
 	/**
@@ -187,13 +323,6 @@ public class SeekableLittleEndianAccessor {
 	}
 	
 	public static String getUTF(SeekableLittleEndianAccessor slea, int length) {
-		byte[] data = slea.getBytes(length);
-		String ret = EMPTY;
-		try {
-			ret = utfDecoder.decode(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN)).toString();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return ret;
+		return new String(slea.getBytes(length), UTF8);
 	}
 }
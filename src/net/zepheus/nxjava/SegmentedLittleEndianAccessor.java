@@ -0,0 +1,270 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A little endian accessor over a file that is too large for a single <code>MappedByteBuffer</code>.
+ * The file is mapped in segments that overlap by a little more than the longest string, so
+ * primitives and strings can always be read from a single segment; only larger ranges that
+ * straddle a segment boundary have to be copied.
+ */
+public class SegmentedLittleEndianAccessor extends SeekableLittleEndianAccessor {
+	private static final int DEFAULT_SEGMENT_SHIFT = 30;
+	private static final int OVERLAP = 0x10000 + 2;
+	
+	private final ByteBuffer[] segments;
+	private final int shift;
+	private final long mask;
+	private final long size;
+	private long position;
+	
+	/**
+	 * Maps a file in segments of 1GB.
+	 * @param channel the channel of the file to map
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	public SegmentedLittleEndianAccessor(FileChannel channel) throws IOException {
+		this(channel, DEFAULT_SEGMENT_SHIFT);
+	}
+	
+	/**
+	 * Maps a file in segments of <code>1 << shift</code> bytes.
+	 * @param channel the channel of the file to map
+	 * @param shift the base 2 logarithm of the segment size
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	public SegmentedLittleEndianAccessor(FileChannel channel, int shift) throws IOException {
+		this(map(channel, shift), shift, channel.size(), 0);
+	}
+	
+	private SegmentedLittleEndianAccessor(ByteBuffer[] segments, int shift, long size, long position) {
+		super(segments[0]);
+		this.segments = segments;
+		this.shift = shift;
+		this.mask = (1L << shift) - 1;
+		this.size = size;
+		this.position = position;
+	}
+	
+	private static ByteBuffer[] map(FileChannel channel, int shift) throws IOException {
+		long size = channel.size();
+		long segmentSize = 1L << shift;
+		if(segmentSize + OVERLAP > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Segments can't be larger than 2GB.");
+		
+		int count = (int)Math.max(1, (size + segmentSize - 1) >>> shift);
+		ByteBuffer[] segments = new ByteBuffer[count];
+		for(int i = 0; i < count; i++) {
+			long start = (long)i << shift;
+			long length = Math.min(segmentSize + OVERLAP, size - start);
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return segments;
+	}
+	
+	private ByteBuffer segment(long offset) {
+		if(offset < 0 || offset >= size)
+			throw new IndexOutOfBoundsException("Offset " + offset + " is outside of the file.");
+		return segments[(int)(offset >>> shift)];
+	}
+	
+	private int local(long offset) {
+		return (int)(offset & mask);
+	}
+	
+	public long size() {
+		return size;
+	}
+	
+	/**
+	 * Gets the first segment. Use {@link #slice(long, int)} to get at data anywhere in the file.
+	 */
+	@Override
+	public ByteBuffer getBuffer() {
+		return segments[0];
+	}
+	
+	@Override
+	public SeekableLittleEndianAccessor duplicate() {
+		return new SegmentedLittleEndianAccessor(segments, shift, size, position);
+	}
+	
+	@Override
+	public int position() {
+		if(position > Integer.MAX_VALUE)
+			throw new RuntimeException("The position doesn't fit in an integer.");
+		return (int)position;
+	}
+	
+	@Override
+	public long getPosition() {
+		return position;
+	}
+	
+	@Override
+	public void skip(int amount) {
+		position += amount;
+	}
+	
+	@Override
+	public void seek(long offset) {
+		position = offset;
+	}
+	
+	@Override
+	public byte getByte(long offset) {
+		return segment(offset).get(local(offset));
+	}
+	
+	@Override
+	public int getUByte(long offset) {
+		return getByte(offset) & 0xFF;
+	}
+	
+	@Override
+	public short getShort(long offset) {
+		return segment(offset).getShort(local(offset));
+	}
+	
+	@Override
+	public int getUShort(long offset) {
+		return getShort(offset) & 0xFFFF;
+	}
+	
+	@Override
+	public int getInt(long offset) {
+		return segment(offset).getInt(local(offset));
+	}
+	
+	@Override
+	public long getUInt(long offset) {
+		return getInt(offset) & 0xFFFFFFFFL;
+	}
+	
+	@Override
+	public long getLong(long offset) {
+		return segment(offset).getLong(local(offset));
+	}
+	
+	@Override
+	public float getFloat(long offset) {
+		return segment(offset).getFloat(local(offset));
+	}
+	
+	@Override
+	public double getDouble(long offset) {
+		return segment(offset).getDouble(local(offset));
+	}
+	
+	@Override
+	public byte[] getBytes(long offset, int number) {
+		byte[] ret = new byte[number];
+		int done = 0;
+		while(done < number) {
+			ByteBuffer view = segment(offset + done).duplicate();
+			view.position(local(offset + done));
+			int amount = Math.min(view.remaining(), number - done);
+			view.get(ret, done, amount);
+			done += amount;
+		}
+		return ret;
+	}
+	
+	@Override
+	public ByteBuffer slice(long offset, int length) {
+		ByteBuffer segment = segment(offset);
+		int local = local(offset);
+		if(local + length > segment.limit())
+			return ByteBuffer.wrap(getBytes(offset, length)).order(ByteOrder.LITTLE_ENDIAN);
+		
+		ByteBuffer view = segment.duplicate();
+		view.position(local);
+		view.limit(local + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	@Override
+	public byte getByte() {
+		byte ret = getByte(position);
+		position += 1;
+		return ret;
+	}
+	
+	@Override
+	public int getUByte() {
+		return getByte() & 0xFF;
+	}
+	
+	@Override
+	public byte[] getBytes(int number) {
+		byte[] ret = getBytes(position, number);
+		position += number;
+		return ret;
+	}
+	
+	@Override
+	public short getShort() {
+		short ret = getShort(position);
+		position += 2;
+		return ret;
+	}
+	
+	@Override
+	public int getUShort() {
+		return getShort() & 0xFFFF;
+	}
+	
+	@Override
+	public int getInt() {
+		int ret = getInt(position);
+		position += 4;
+		return ret;
+	}
+	
+	@Override
+	public long getUInt() {
+		return getInt() & 0xFFFFFFFFL;
+	}
+	
+	@Override
+	public long getLong() {
+		long ret = getLong(position);
+		position += 8;
+		return ret;
+	}
+	
+	@Override
+	public float getFloat() {
+		float ret = getFloat(position);
+		position += 4;
+		return ret;
+	}
+	
+	@Override
+	public double getDouble() {
+		double ret = getDouble(position);
+		position += 8;
+		return ret;
+	}
+}
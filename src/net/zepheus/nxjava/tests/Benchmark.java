@@ -18,39 +18,226 @@
 
 package net.zepheus.nxjava.tests;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
 
+import net.zepheus.nxjava.NXBitmapIndex;
+import net.zepheus.nxjava.NXCursor;
 import net.zepheus.nxjava.NXFile;
 import net.zepheus.nxjava.NXNode;
+import net.zepheus.nxjava.NXPath;
+import net.zepheus.nxjava.NXReadMode;
 
+/**
+ * Benchmarks the common operations for every combination of the read modes in {@link #MODES}.
+ * The modes in {@link #EXTRA_MODES} are timed on top of each combination by opening the file and
+ * walking the whole tree. <code>SIDECAR_INDEX</code> writes an index next to the file.
+ * Usage: <code>Benchmark [file.nx]</code>; without a file, a synthetic file is generated
+ * with <code>NXGenerator</code> (its size can be set with <code>-Dnxjava.images=N</code>).
+ * Every measurement is repeated and reports the best and the average time.
+ */
 public class Benchmark {
 	
+	private static final NXReadMode[] MODES = { NXReadMode.EAGER_PARSE_STRINGS, NXReadMode.LOW_MEMORY };
+	// Only change how a file is opened or the node table is read, so all combinations would mostly repeat the above
+	private static final NXReadMode[] EXTRA_MODES = { NXReadMode.SIDECAR_INDEX, NXReadMode.MAPPED_NODES, NXReadMode.PRELOAD_NODES, NXReadMode.NEVER_PARSE_CANVAS };
+	private static final int WARMUP = 3;
 	private static final int COUNT = 10;
-	private static final String FILE_PATH = "D:\\Games\\MapleBeta\\DataOnly.nx";
+	private static final int ACCESS_TIMES = 1000000;
+	private static final String[] ACCESS_PATH = { "Effect", "BasicEff.img", "LevelUp", "5", "origin" };
+	private static final String ACCESS_STRING = "Effect/BasicEff.img/LevelUp/5/origin";
+	
+	// Results are accumulated here so the JIT can't drop the work being measured
+	private static long sink;
+	
+	public static void main(String[] args) throws IOException {
+		String path;
+		if(args.length > 0) {
+			path = args[0];
+		} else {
+			File file = File.createTempFile("nxjava-benchmark", ".nx");
+			file.deleteOnExit();
+			path = file.getPath();
+			new File(path + ".idx").deleteOnExit();
+			new NXGenerator(1, Integer.getInteger("nxjava.images", 256), 32, 64, 16384).write(path);
+			System.out.println("Generated " + path + " (" + file.length() / 1024 + "KB)");
+		}
+		
+		for(EnumSet<NXReadMode> mode : combinations()) {
+			System.out.println();
+			System.out.println("== " + mode);
+			run(path, mode);
+		}
+		System.out.println();
+		memoryTest();
+		if(sink == 42)
+			System.out.println();
+	}
+	
+	private static List<EnumSet<NXReadMode>> combinations() {
+		List<EnumSet<NXReadMode>> result = new ArrayList<EnumSet<NXReadMode>>();
+		for(int bits = 0; bits < 1 << MODES.length; bits++) {
+			EnumSet<NXReadMode> set = EnumSet.of(NXReadMode.NONE);
+			for(int i = 0; i < MODES.length; i++) {
+				if((bits & (1 << i)) != 0)
+					set.add(MODES[i]);
+			}
+			result.add(set);
+		}
+		return result;
+	}
 	
-	public static void main(String[] args) {
-		System.out.println("Press [RETURN] to start benchmark.");
-		try {
-				System.in.read();
-				NXFile file = loadTest(FILE_PATH);
-				accessTest(file, 1000000);
-				recurseTest(file);
-				memoryTest();
-				System.out.println("Finished. Press [RETURN] to end.");
-				System.in.read();
+	private static void run(final String path, final EnumSet<NXReadMode> mode) throws IOException {
+		measure("open & parse", new Task() {
+			public void run() throws IOException {
+				NXFile file = new NXFile(path, mode);
+				sink += file.getHeader().getNodeCount();
+				file.close();
+			}
+		});
+		
+		final EnumSet<NXReadMode> eager = EnumSet.copyOf(mode);
+		eager.add(NXReadMode.EAGER_PARSE_FILE);
+		measure("open & materialize all nodes", new Task() {
+			public void run() throws IOException {
+				NXFile file = new NXFile(path, eager);
+				sink += file.getRoot().getChildCount();
+				file.close();
+			}
+		});
+		
+		measure("open & walk", new Task() {
+			public void run() throws IOException {
+				NXFile file = new NXFile(path, mode);
+				sink += recurse(file.getRoot());
 				file.close();
-		} catch (Exception ex) {
-			System.out.println(ex.getMessage());
+			}
+		});
+		for(NXReadMode extra : EXTRA_MODES) {
+			final EnumSet<NXReadMode> extended = EnumSet.copyOf(mode);
+			extended.add(extra);
+			measure("open & walk +" + extra, new Task() {
+				public void run() throws IOException {
+					NXFile file = new NXFile(path, extended);
+					sink += recurse(file.getRoot());
+					file.close();
+				}
+			});
 		}
+		
+		measure("open & load all strings", new Task() {
+			public void run() throws IOException {
+				NXFile file = new NXFile(path, mode);
+				int count = file.getHeader().getStringCount();
+				for(int i = 0; i < count; i++)
+					sink += file.getString(i).length();
+				file.close();
+			}
+		});
+		
+		final NXFile file = new NXFile(path, mode);
+		final NXPath compiled = NXPath.compile(ACCESS_STRING);
+		measure("resolvePath(String...) x" + ACCESS_TIMES, new Task() {
+			public void run() {
+				for(int i = 0; i < ACCESS_TIMES; i++)
+					sink += file.resolvePath(ACCESS_PATH).getChildCount();
+			}
+		});
+		measure("resolvePath(String) x" + ACCESS_TIMES, new Task() {
+			public void run() {
+				for(int i = 0; i < ACCESS_TIMES; i++)
+					sink += file.resolvePath(ACCESS_STRING).getChildCount();
+			}
+		});
+		measure("NXPath.resolve x" + ACCESS_TIMES, new Task() {
+			public void run() {
+				for(int i = 0; i < ACCESS_TIMES; i++)
+					sink += compiled.resolve(file).getChildCount();
+			}
+		});
+		
+		measure("full recursion", new Task() {
+			public void run() {
+				sink += recurse(file.getRoot());
+			}
+		});
+		measure("full recursion (cursor)", new Task() {
+			public void run() {
+				sink += recurse(file.getCursor());
+			}
+		});
+		
+		final int bitmaps = file.getHeader().getBmpCount();
+		final int[] ids = new int[bitmaps];
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = i;
+		file.setBitmapCache(null);
+		file.setMP3Cache(null);
+		measure("decode " + bitmaps + " bitmaps", new Task() {
+			public void run() {
+				for(int i = 0; i < bitmaps; i++)
+					sink += file.getBitmap(i).getWidth();
+			}
+		});
+		measure("decode " + bitmaps + " bitmaps (batch)", new Task() {
+			public void run() {
+				sink += file.getBitmaps(ids).length;
+			}
+		});
+		NXBitmapIndex index = file.getBitmapIndex();
+		long largest = 0;
+		for(int i = 0; i < bitmaps; i++)
+			largest = Math.max(largest, index.getDecodedSize(i));
+		final ByteBuffer pixels = ByteBuffer.allocateDirect((int)largest);
+		measure("decode " + bitmaps + " bitmaps (into buffer)", new Task() {
+			public void run() {
+				for(int i = 0; i < bitmaps; i++) {
+					pixels.clear();
+					file.decodeBitmap(i, pixels);
+					sink += pixels.position();
+				}
+			}
+		});
+		
+		final int sounds = file.getHeader().getMp3Count();
+		measure("load " + sounds + " MP3s", new Task() {
+			public void run() {
+				for(int i = 0; i < sounds; i++)
+					sink += file.getMP3(i).length;
+			}
+		});
+		measure("map " + sounds + " MP3s", new Task() {
+			public void run() {
+				for(int i = 0; i < sounds; i++)
+					sink += file.getMP3Buffer(i).remaining();
+			}
+		});
+		file.close();
+	}
+	
+	private interface Task {
+		void run() throws IOException;
 	}
 	
-	private static NXFile loadTest(String path) throws FileNotFoundException, IOException {
-		long start = System.currentTimeMillis();
-		NXFile file = new NXFile(path);
-		long time = System.currentTimeMillis() - start;
-		System.out.println("Loading file & string table took " + time + "ms.");
-		return file;
+	private static void measure(String name, Task task) throws IOException {
+		long[] times = new long[COUNT];
+		for(int i = 0; i < WARMUP + COUNT; i++) {
+			long start = System.nanoTime();
+			task.run();
+			long time = System.nanoTime() - start;
+			if(i >= WARMUP)
+				times[i - WARMUP] = time;
+		}
+		Arrays.sort(times);
+		long total = 0;
+		for(long time : times)
+			total += time;
+		System.out.println(String.format("%-40s best %9.3fms  avg %9.3fms", name, times[0] / 1e6, total / (1e6 * COUNT)));
 	}
 	
 	private static void memoryTest() 
@@ -61,33 +248,21 @@ public class Benchmark {
 		System.out.println("Memory usage after testing: " + MB + "MB");
 	}
 	
-	private static void accessTest(NXFile file, int times) {
-		System.gc();
-		long start = System.currentTimeMillis();
-		for(int i = 0; i < times * COUNT; i++)
-		{
-			//NXNode node = file.resolvePath("Effect/BasicEff.img/LevelUp/5/origin");
-			NXNode node = file.resolvePath("Effect", "BasicEff.img", "LevelUp", "5", "origin");
-		}
-		long time = System.currentTimeMillis() - start;
-		long average = time / COUNT;
-		System.out.println("Access took " + average +"ms based on " + COUNT + " results.");
+	private static int recurse(NXNode node) {
+		int count = 1;
+		for(NXNode child : node)
+			count += recurse(child);
+		return count;
 	}
 	
-	private static void recurseTest(NXFile file) {
-		System.gc();
-		long start = System.currentTimeMillis();
-		for(int i = 0; i < COUNT; i++)
-		{
-			recurse(file.getRoot());
+	private static int recurse(NXCursor cursor) {
+		int count = 1;
+		int children = cursor.getChildCount();
+		for(int i = 0; i < children; i++) {
+			cursor.moveToChild(i);
+			count += recurse(cursor);
+			cursor.moveToParent();
 		}
-		long time = System.currentTimeMillis() - start;
-		long average = time / COUNT;
-		System.out.println("Full recursion took " + average +"ms based on " + COUNT + " results.");
-	}
-	
-	private static void recurse(NXNode node) {
-		for(NXNode child : node)
-			recurse(child);
+		return count;
 	}
 }
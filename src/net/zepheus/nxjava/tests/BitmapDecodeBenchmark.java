@@ -0,0 +1,85 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava.tests;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import net.zepheus.nxjava.NXBitmapConverter;
+
+/**
+ * Compares the per-pixel <code>setRGB</code> conversion that <code>NXFile.getBitmap</code> used to do
+ * against the bulk raster copy in <code>NXBitmapConverter</code>, on typical canvas sizes.
+ */
+public class BitmapDecodeBenchmark {
+	
+	private static final int[] SIZES = { 32, 128, 512, 1024 };
+	private static final int WARMUP = 5;
+	private static final int RUNS = 20;
+	
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		for(int size : SIZES) {
+			byte[] bytes = new byte[size * size * 4];
+			random.nextBytes(bytes);
+			ByteBuffer pixels = ByteBuffer.allocateDirect(bytes.length);
+			pixels.put(bytes);
+			
+			long legacy = time(pixels, size, true);
+			long bulk = time(pixels, size, false);
+			System.out.println(size + "x" + size + ": setRGB loop " + legacy / 1000 + "us, bulk copy " + bulk / 1000 + "us");
+		}
+	}
+	
+	private static long time(ByteBuffer pixels, int size, boolean legacy) {
+		long best = Long.MAX_VALUE;
+		long check = 0;
+		for(int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			BufferedImage image = legacy ? legacy(pixels, size, size) : NXBitmapConverter.toImage(pixels, size, size);
+			long time = System.nanoTime() - start;
+			check += image.getRGB(size - 1, size - 1);
+			if(i >= WARMUP)
+				best = Math.min(best, time);
+		}
+		// Keep the result alive so the conversions can't be optimized away
+		if(check == 42)
+			System.out.print("");
+		return best;
+	}
+	
+	private static BufferedImage legacy(ByteBuffer pixels, int width, int height) {
+		ByteBuffer output = pixels.duplicate();
+		output.rewind();
+		output.order(ByteOrder.LITTLE_ENDIAN);
+		BufferedImage value = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		for (int h = 0; h < height; h++) {
+			for (int w = 0; w < width; w++) {
+				int b = output.get() & 0xFF;
+				int g = output.get() & 0xFF;
+				int r = output.get() & 0xFF;
+				int a = output.get() & 0xFF;
+				value.setRGB(w, h, (a << 24) | (r << 16) | (g << 8) | b);
+			}
+		}
+		return value;
+	}
+}
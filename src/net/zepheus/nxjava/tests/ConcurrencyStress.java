@@ -0,0 +1,239 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.zepheus.nxjava.NXCanvasNode;
+import net.zepheus.nxjava.NXCursor;
+import net.zepheus.nxjava.NXFile;
+import net.zepheus.nxjava.NXMP3Node;
+import net.zepheus.nxjava.NXNode;
+import net.zepheus.nxjava.NXReadMode;
+import net.zepheus.nxjava.NXStringNode;
+import net.zepheus.nxjava.NXVectorNode;
+
+/**
+ * Walks the tree of a freshly opened file from many threads at once and checks that every
+ * thread sees the same tree as a single threaded {@link NXCursor} walk, and, without a node
+ * budget, that each node is only ever materialized as one object. Rounds alternate between no
+ * budget, a budget set before the walk and a budget set while the threads are walking.
+ * Files written by <code>NXGenerator</code> are first checked for its negative integer node,
+ * read through both {@link NXNode} and {@link NXCursor}.
+ * Usage: <code>ConcurrencyStress [file.nx] [rounds]</code>; without a file, a synthetic file
+ * is generated with <code>NXGenerator</code>. Exits with status 1 on the first failed round.
+ */
+public class ConcurrencyStress {
+	
+	private static final NXReadMode[] MODES = { NXReadMode.NONE, NXReadMode.LOW_MEMORY, NXReadMode.EAGER_PARSE_STRINGS };
+	private static final int BUDGET = 512;
+	private static final String[] BUDGETS = { "", " with budget", " with budget set while walking" };
+	
+	public static void main(String[] args) throws Exception {
+		String path;
+		if(args.length > 0) {
+			path = args[0];
+		} else {
+			File file = File.createTempFile("nxjava-stress", ".nx");
+			file.deleteOnExit();
+			path = file.getPath();
+			new NXGenerator(1, 64, 32, 64, 1024).write(path);
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+		
+		NXFile reference = new NXFile(path, EnumSet.of(NXReadMode.NONE));
+		long expected = checksum(reference.getCursor());
+		String signed = checkSigned(reference);
+		reference.close();
+		if(signed != null) {
+			System.out.println(signed);
+			System.exit(1);
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for(int round = 0; round < rounds; round++) {
+				NXReadMode mode = MODES[round % MODES.length];
+				int budget = (round / MODES.length) % BUDGETS.length;
+				String failure = run(pool, threads, path, mode, budget, expected);
+				System.out.println("round " + round + " " + mode + BUDGETS[budget] + ": " + (failure == null ? "ok" : failure));
+				if(failure != null)
+					System.exit(1);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static String run(ExecutorService pool, int threads, String path, NXReadMode mode, int budget, final long expected) throws Exception {
+		final NXFile file = new NXFile(path, EnumSet.of(mode));
+		if(budget == 1)
+			file.setNodeBudget(BUDGET);
+		// Unloaded children are parsed again as new objects, so identity only holds without a budget
+		final ConcurrentHashMap<Integer, NXNode> seen = budget != 0 ? null : new ConcurrentHashMap<Integer, NXNode>();
+		final AtomicInteger duplicates = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for(int i = 0; i < threads; i++) {
+			final int thread = i;
+			results.add(pool.submit(new Callable<Long>() {
+				public Long call() throws Exception {
+					start.await();
+					return walk(file.getRoot(), thread, 0, seen, duplicates);
+				}
+			}));
+		}
+		start.countDown();
+		if(budget == 2)
+			file.setNodeBudget(BUDGET);
+		
+		try {
+			for(Future<Long> result : results) {
+				long checksum = result.get();
+				if(checksum != expected)
+					return "checksum " + checksum + " != " + expected;
+			}
+			if(duplicates.get() > 0)
+				return duplicates.get() + " nodes materialized twice";
+			return null;
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Reads the generator's negative integer through both the node and the cursor API.
+	 * @return a description of the mismatch, or null if the value is right or the file has no such node
+	 */
+	private static String checkSigned(NXFile file) {
+		NXNode node = file.resolvePath(NXGenerator.SIGNED_PATH);
+		if(node == null)
+			return null;
+		
+		long expected = NXGenerator.SIGNED_VALUE;
+		NXCursor cursor = file.getCursor().moveTo(node.getId());
+		long[] values = { node.getLong(0), ((Number)node.getValue()).longValue(), (long)node.getDouble(0), cursor.getLong(0), (long)cursor.getDouble(0) };
+		for(long value : values) {
+			if(value != expected)
+				return NXGenerator.SIGNED_PATH + " read as " + value + " instead of " + expected;
+		}
+		return null;
+	}
+	
+	private static long walk(NXNode node, int thread, int depth, ConcurrentHashMap<Integer, NXNode> seen, AtomicInteger duplicates) {
+		if(seen != null) {
+			NXNode previous = seen.putIfAbsent(node.getId(), node);
+			if(previous != null && previous != node)
+				duplicates.incrementAndGet();
+		}
+		
+		long sum = hash(node.getId(), node.getName(), node.getChildCount(), value(node));
+		int count = node.getChildCount();
+		// Mix the ways of getting at the children so the threads race on different paths
+		switch((thread + depth) % 3) {
+		case 0:
+			for(NXNode child : node)
+				sum += visit(node, child, thread, depth, seen, duplicates);
+			break;
+		case 1:
+			for(int i = count - 1; i >= 0; i--)
+				sum += visit(node, node.getChild(i), thread, depth, seen, duplicates);
+			break;
+		default:
+			for(int i = 0; i < count; i++)
+				sum += visit(node, node.getChild(node.getChild(i).getName()), thread, depth, seen, duplicates);
+			break;
+		}
+		return sum;
+	}
+	
+	private static long visit(NXNode parent, NXNode child, int thread, int depth, ConcurrentHashMap<Integer, NXNode> seen, AtomicInteger duplicates) {
+		if(child == null || child.getParent() != parent)
+			throw new IllegalStateException("bad child of " + parent.getName());
+		
+		return walk(child, thread, depth + 1, seen, duplicates);
+	}
+	
+	private static long value(NXNode node) {
+		if(node instanceof NXStringNode)
+			return ((NXStringNode)node).getValue().hashCode();
+		if(node instanceof NXVectorNode)
+			return ((NXVectorNode)node).getX() * 31L + ((NXVectorNode)node).getY();
+		if(node instanceof NXCanvasNode)
+			return ((NXCanvasNode)node).getBitmapId();
+		if(node instanceof NXMP3Node)
+			return ((NXMP3Node)node).getMP3Id();
+		return node.getLong(0);
+	}
+	
+	private static long checksum(NXCursor cursor) {
+		long value;
+		switch(cursor.getType()) {
+		case NXNode.TYPE_INTEGER:
+			value = cursor.getLong(0);
+			break;
+		case NXNode.TYPE_DOUBLE:
+			value = cursor.getLong(0);
+			break;
+		case NXNode.TYPE_STRING:
+			value = cursor.getString().hashCode();
+			break;
+		case NXNode.TYPE_VECTOR:
+			value = cursor.getX() * 31L + cursor.getY();
+			break;
+		case NXNode.TYPE_CANVAS:
+			value = cursor.getBitmapId();
+			break;
+		case NXNode.TYPE_MP3:
+			value = cursor.getMP3Id();
+			break;
+		default:
+			value = 0;
+		}
+		
+		int count = cursor.getChildCount();
+		long sum = hash(cursor.getId(), cursor.getName(), count, value);
+		for(int i = 0; i < count; i++) {
+			cursor.moveToChild(i);
+			sum += checksum(cursor);
+			cursor.moveToParent();
+		}
+		return sum;
+	}
+	
+	private static long hash(int id, String name, int childCount, long value) {
+		// Summed over the tree, so the order of the walk doesn't matter
+		long h = id * 0x9E3779B97F4A7C15L;
+		h = (h ^ name.hashCode()) * 0xC2B2AE3D27D4EB4FL;
+		h = (h ^ childCount) * 0x165667B19E3779F9L;
+		return (h ^ value) * 0x9E3779B97F4A7C15L;
+	}
+}
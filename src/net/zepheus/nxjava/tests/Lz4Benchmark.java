@@ -0,0 +1,129 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava.tests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import net.zepheus.nxjava.NXCompression;
+import net.zepheus.nxjava.NXFile;
+import net.zepheus.nxjava.SeekableLittleEndianAccessor;
+
+/**
+ * Compares the native LZ4 binding with the pure Java decoder. Without arguments it uses
+ * synthetic sprites of common canvas sizes; given the path of an NX file it decompresses
+ * every canvas in that file instead.
+ */
+public class Lz4Benchmark {
+	
+	private static final int[] SIZES = { 32, 64, 128, 256, 512, 1024 };
+	private static final int WARMUP = 100;
+	private static final int RUNS = 50;
+	
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0)
+			fileTest(args[0]);
+		else
+			syntheticTest();
+	}
+	
+	private static void syntheticTest() {
+		Random random = new Random(1);
+		for(int size : SIZES) {
+			ByteBuffer raw = ByteBuffer.allocateDirect(size * size * 4);
+			fillSprite(raw, size, random);
+			
+			byte[] bytes = new byte[raw.capacity()];
+			raw.get(bytes);
+			byte[] block = NXGenerator.compress(bytes);
+			int length = block.length;
+			// Leave room in front of the block, like the canvas header in a file
+			ByteBuffer compressed = ByteBuffer.allocateDirect(length + 8);
+			compressed.position(8);
+			compressed.put(block);
+			ByteBuffer heapCompressed = ByteBuffer.allocate(length + 8);
+			heapCompressed.position(8);
+			heapCompressed.put(block);
+			
+			System.out.println(size + "x" + size + " (" + length + " compressed bytes):"
+					+ " native " + time(true, compressed, length, ByteBuffer.allocateDirect(raw.capacity())) / 1000 + "us,"
+					+ " java/direct " + time(false, compressed, length, ByteBuffer.allocateDirect(raw.capacity())) / 1000 + "us,"
+					+ " java/heap " + time(false, heapCompressed, length, ByteBuffer.allocate(raw.capacity())) / 1000 + "us");
+		}
+	}
+	
+	private static long time(boolean useNative, ByteBuffer input, int length, ByteBuffer output) {
+		if(useNative && !NXCompression.isNativeAvailable())
+			return -1;
+		NXCompression.setNative(useNative);
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < WARMUP + RUNS; i++) {
+			long start = System.nanoTime();
+			NXCompression.decompressBlock(input, 8, length, output, 0);
+			long time = System.nanoTime() - start;
+			if(i >= WARMUP)
+				best = Math.min(best, time);
+		}
+		return best;
+	}
+	
+	private static void fileTest(String path) throws Exception {
+		NXFile file = new NXFile(path);
+		int count = file.getHeader().getBmpCount();
+		for(int run = 0; run < 3; run++) {
+			for(boolean useNative : new boolean[] { true, false }) {
+				if(useNative && !NXCompression.isNativeAvailable())
+					continue;
+				NXCompression.setNative(useNative);
+				long bytes = 0;
+				long start = System.nanoTime();
+				for(int i = 0; i < count; i++) {
+					long offset = file.getBitmapOffset(i);
+					SeekableLittleEndianAccessor slea = file.getStreamAtOffset(offset);
+					int width = slea.getUShort();
+					int height = slea.getUShort();
+					int length = slea.getInt();
+					ByteBuffer output = NXCompression.allocate(width * height * 4);
+					NXCompression.decompressBlock(slea.slice(offset + 8, length), 0, length, output, 0);
+					bytes += output.capacity();
+				}
+				long time = System.nanoTime() - start;
+				System.out.println((useNative ? "native" : "java") + ": " + count + " canvases, "
+						+ bytes / (1024 * 1024) + "MB in " + time / 1000000 + "ms");
+			}
+		}
+		file.close();
+	}
+	
+	/**
+	 * Fills the buffer with flat colored runs on a transparent border, roughly like a sprite.
+	 */
+	private static void fillSprite(ByteBuffer raw, int size, Random random) {
+		int color = random.nextInt();
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				if(random.nextInt(16) == 0)
+					color = random.nextInt();
+				boolean border = x < size / 8 || y < size / 8;
+				raw.putInt(border ? 0 : color | 0xFF000000);
+			}
+		}
+		raw.clear();
+	}
+}
@@ -23,14 +23,11 @@ import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.Timer;
 
-import net.zepheus.nxjava.NXCanvasNode;
 import net.zepheus.nxjava.NXEmptyNode;
 import net.zepheus.nxjava.NXFile;
 import net.zepheus.nxjava.NXNode;
@@ -57,17 +54,7 @@ public class NXAnimation extends JPanel implements ActionListener {
 	private void loadSprites(String[] animationPath) {
 		NXNode node = file.resolvePath(animationPath);
 		if(node instanceof NXEmptyNode) {
-			List<BufferedImage> images = new ArrayList<BufferedImage>();
-			for(NXNode sprite : node) {
-				if(sprite instanceof NXCanvasNode) {
-					NXCanvasNode canvas = (NXCanvasNode)sprite;
-					images.add(canvas.getImage());
-				}
-			}
-			sprites = new BufferedImage[images.size()];
-			for(int i = 0; i < sprites.length; i++) {
-				sprites[i] = images.get(i);
-			}
+			sprites = node.decodeAllCanvases();
 			
 			System.out.println("Loaded " + sprites.length + " sprites.");
 			this.setPreferredSize(new Dimension(sprites[0].getWidth(), sprites[0].getHeight()));
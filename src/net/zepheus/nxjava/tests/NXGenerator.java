@@ -0,0 +1,431 @@
+/**
+ * nxjava: a library for loading the NX file format
+ * Copyright (C) 2012 Cedric Van Goethem
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.zepheus.nxjava.tests;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.zepheus.nxjava.NXNode;
+
+/**
+ * Writes deterministic synthetic PKG3 files for benchmarking and testing.
+ * The generated tree always contains <code>Effect/BasicEff.img/LevelUp/5/origin</code>
+ * (a vector), <code>Mob/8800000.img/attack1</code> (a folder of canvases) and
+ * <code>Sound/Bgm07.img/FunnyTimeMaker</code> (a sound), so the existing test programs
+ * can be pointed at a generated file.
+ */
+public class NXGenerator {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int HEADER_SIZE = 52;
+	private static final int NODE_SIZE = 20;
+
+	/** A fixed integer node, used to check that integers are read back sign extended. */
+	public static final String SIGNED_PATH = "Etc/Signed.img/min";
+	public static final int SIGNED_VALUE = Integer.MIN_VALUE;
+
+	private final Random random;
+	private final int imageCount;
+	private final int imageWidth;
+	private final int canvasSize;
+	private final int soundSize;
+	private long padding;
+
+	private final List<String> strings = new ArrayList<String>();
+	private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private final List<byte[]> bitmaps = new ArrayList<byte[]>();
+	private final List<byte[]> sounds = new ArrayList<byte[]>();
+
+	/**
+	 * Creates a generator.
+	 * @param seed the seed for all generated content
+	 * @param imageCount the number of <code>.img</code> directories below each top-level directory
+	 * @param imageWidth the number of entries in each <code>.img</code> directory
+	 * @param canvasSize the width and height of the generated canvases
+	 * @param soundSize the size in bytes of the generated sounds
+	 */
+	public NXGenerator(long seed, int imageCount, int imageWidth, int canvasSize, int soundSize) {
+		this.random = new Random(seed);
+		this.imageCount = imageCount;
+		this.imageWidth = imageWidth;
+		this.canvasSize = canvasSize;
+		this.soundSize = soundSize;
+	}
+
+	/**
+	 * Usage: <code>NXGenerator [path] [images per directory] [padding in MB]</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		String path = args.length > 0 ? args[0] : "synthetic.nx";
+		int images = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		NXGenerator generator = new NXGenerator(1, images, 32, 64, 16384);
+		if(args.length > 2)
+			generator.setPadding(Long.parseLong(args[2]) << 20);
+		generator.write(path);
+		System.out.println("Wrote " + path);
+	}
+	
+	/**
+	 * Inserts a hole of <code>padding</code> bytes before the canvas and sound data. The hole is
+	 * skipped rather than written, so on most file systems large test files cost no disk space.
+	 */
+	public void setPadding(long padding) {
+		this.padding = padding;
+	}
+
+	private static class Node {
+		final String name;
+		final int type;
+		long data;
+		final List<Node> children = new ArrayList<Node>();
+		int firstChildId;
+
+		Node(String name, int type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		Node add(Node child) {
+			children.add(child);
+			return child;
+		}
+	}
+
+	public void write(String path) throws IOException {
+		Node root = buildTree();
+		strings.clear();
+		stringIds.clear();
+
+		// Children have to be stored contiguously, so the ids are assigned breadth first.
+		List<Node> order = new ArrayList<Node>();
+		order.add(root);
+		for(int i = 0; i < order.size(); i++) {
+			Node node = order.get(i);
+			node.firstChildId = order.size();
+			order.addAll(node.children);
+		}
+		for(Node node : order) {
+			intern(node.name);
+			if(node.type == NXNode.TYPE_STRING)
+				node.data = intern(stringValue(node));
+		}
+
+		long nodeOffset = HEADER_SIZE;
+		long stringOffset = nodeOffset + (long)order.size() * NODE_SIZE;
+		long stringSize = 0;
+		for(String s : strings)
+			stringSize += 2 + s.getBytes(UTF8).length;
+		long bmpOffset = stringOffset + stringSize;
+		long mp3Offset = bmpOffset + bitmaps.size() * 8L;
+		long dataOffset = mp3Offset + sounds.size() * 8L + padding;
+
+		FileOutputStream file = new FileOutputStream(path);
+		OutputStream out = new BufferedOutputStream(file, 1 << 16);
+		try {
+			out.write("PKG3".getBytes(UTF8));
+			writeInt(out, order.size());
+			writeLong(out, nodeOffset);
+			writeInt(out, strings.size());
+			writeLong(out, stringOffset);
+			writeInt(out, bitmaps.size());
+			writeLong(out, bmpOffset);
+			writeInt(out, sounds.size());
+			writeLong(out, mp3Offset);
+
+			for(Node node : order) {
+				writeInt(out, stringIds.get(node.name));
+				writeShort(out, node.children.size());
+				writeShort(out, node.type);
+				writeLong(out, node.data);
+				writeInt(out, node.children.isEmpty() ? 0 : node.firstChildId);
+			}
+			for(String s : strings) {
+				byte[] bytes = s.getBytes(UTF8);
+				writeShort(out, bytes.length);
+				out.write(bytes);
+			}
+
+			long offset = dataOffset;
+			for(byte[] bitmap : bitmaps) {
+				writeLong(out, offset);
+				offset += bitmap.length;
+			}
+			for(byte[] sound : sounds) {
+				writeLong(out, offset);
+				offset += sound.length;
+			}
+			out.flush();
+			file.getChannel().position(dataOffset);
+			for(byte[] bitmap : bitmaps)
+				out.write(bitmap);
+			for(byte[] sound : sounds)
+				out.write(sound);
+		} finally {
+			out.close();
+		}
+	}
+
+	private Node buildTree() {
+		Node root = new Node("", NXNode.TYPE_EMPTY);
+
+		Node effect = root.add(new Node("Effect", NXNode.TYPE_EMPTY));
+		Node levelUp = effect.add(new Node("BasicEff.img", NXNode.TYPE_EMPTY)).add(new Node("LevelUp", NXNode.TYPE_EMPTY));
+		for(int i = 0; i < 8; i++) {
+			Node frame = levelUp.add(canvas(Integer.toString(i)));
+			frame.add(vector("origin"));
+		}
+
+		Node mob = root.add(new Node("Mob", NXNode.TYPE_EMPTY));
+		Node attack = mob.add(new Node("8800000.img", NXNode.TYPE_EMPTY)).add(new Node("attack1", NXNode.TYPE_EMPTY));
+		for(int i = 0; i < 12; i++)
+			attack.add(canvas(Integer.toString(i))).add(vector("origin"));
+
+		Node sound = root.add(new Node("Sound", NXNode.TYPE_EMPTY));
+		sound.add(new Node("Bgm07.img", NXNode.TYPE_EMPTY)).add(mp3("FunnyTimeMaker"));
+
+		Node signed = root.add(new Node("Etc", NXNode.TYPE_EMPTY)).add(new Node("Signed.img", NXNode.TYPE_EMPTY));
+		signed.add(new Node("min", NXNode.TYPE_INTEGER)).data = SIGNED_VALUE;
+
+		String[] directories = { "Map", "Item", "Skill", "String" };
+		for(String directory : directories) {
+			Node dir = root.add(new Node(directory, NXNode.TYPE_EMPTY));
+			for(int i = 0; i < imageCount; i++) {
+				Node image = dir.add(new Node(String.format("%07d.img", i * 7 + 100000), NXNode.TYPE_EMPTY));
+				for(int j = 0; j < imageWidth; j++)
+					image.add(entry(j));
+			}
+		}
+		return root;
+	}
+
+	private Node entry(int index) {
+		String name = index % 3 == 0 ? Integer.toString(index) : "entry" + index;
+		switch(random.nextInt(8)) {
+		case 0:
+			Node info = new Node(name, NXNode.TYPE_EMPTY);
+			info.add(integer("hp"));
+			info.add(integer("mp"));
+			info.add(real("speed"));
+			info.add(text("name"));
+			return info;
+		case 1:
+			return real(name);
+		case 2:
+			return text(name);
+		case 3:
+			return vector(name);
+		case 4:
+			Node canvas = canvas(name);
+			canvas.add(vector("origin"));
+			canvas.add(integer("delay"));
+			return canvas;
+		case 5:
+			return random.nextInt(16) == 0 ? mp3(name) : integer(name);
+		default:
+			return integer(name);
+		}
+	}
+
+	private Node integer(String name) {
+		Node node = new Node(name, NXNode.TYPE_INTEGER);
+		node.data = random.nextInt(200000) - 100000;
+		return node;
+	}
+
+	private Node real(String name) {
+		Node node = new Node(name, NXNode.TYPE_DOUBLE);
+		node.data = Double.doubleToLongBits(random.nextDouble() * 100);
+		return node;
+	}
+
+	private Node text(String name) {
+		Node node = new Node(name, NXNode.TYPE_STRING);
+		node.data = random.nextInt(1000);
+		return node;
+	}
+
+	private String stringValue(Node node) {
+		return "value " + node.data;
+	}
+
+	private Node vector(String name) {
+		Node node = new Node(name, NXNode.TYPE_VECTOR);
+		int x = random.nextInt(200) - 100;
+		int y = random.nextInt(200) - 100;
+		node.data = (x & 0xFFFFFFFFL) | ((long)y << 32);
+		return node;
+	}
+
+	private Node canvas(String name) {
+		Node node = new Node(name, NXNode.TYPE_CANVAS);
+		node.data = bitmaps.size();
+		int width = canvasSize / 2 + random.nextInt(canvasSize);
+		int height = canvasSize / 2 + random.nextInt(canvasSize);
+		byte[] compressed = compress(pixels(width, height));
+		byte[] record = new byte[8 + compressed.length];
+		putShort(record, 0, width);
+		putShort(record, 2, height);
+		putInt(record, 4, compressed.length);
+		System.arraycopy(compressed, 0, record, 8, compressed.length);
+		bitmaps.add(record);
+		return node;
+	}
+
+	private Node mp3(String name) {
+		Node node = new Node(name, NXNode.TYPE_MP3);
+		node.data = sounds.size();
+		byte[] record = new byte[4 + soundSize];
+		putInt(record, 0, soundSize);
+		for(int i = 4; i < record.length; i++)
+			record[i] = (byte)random.nextInt();
+		sounds.add(record);
+		return node;
+	}
+
+	/**
+	 * Produces BGRA pixels with flat runs and a gradient, which compress roughly as well as real sprites.
+	 */
+	private byte[] pixels(int width, int height) {
+		byte[] data = new byte[width * height * 4];
+		int color = random.nextInt();
+		int p = 0;
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				if(random.nextInt(16) == 0)
+					color = random.nextInt();
+				boolean transparent = x < width / 8 || y < height / 8;
+				data[p++] = (byte)(color + x);
+				data[p++] = (byte)(color >> 8);
+				data[p++] = (byte)((color >> 16) + y);
+				data[p++] = transparent ? 0 : (byte)0xFF;
+			}
+		}
+		return data;
+	}
+
+	private int intern(String s) {
+		Integer id = stringIds.get(s);
+		if(id == null) {
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	/**
+	 * A small greedy LZ4 block compressor; the output is a raw block as stored in canvases.
+	 */
+	public static byte[] compress(byte[] src) {
+		final int minMatch = 4, lastLiterals = 5, mfLimit = 12;
+		byte[] dst = new byte[src.length + src.length / 255 + 16];
+		int[] table = new int[1 << 14];
+		java.util.Arrays.fill(table, -1);
+		int ip = 0, anchor = 0, op = 0;
+		int limit = src.length - mfLimit;
+		while(ip < limit) {
+			int sequence = readInt(src, ip);
+			int h = (sequence * -1640531535) >>> 18;
+			int ref = table[h];
+			table[h] = ip;
+			if(ref < 0 || ip - ref > 0xFFFF || readInt(src, ref) != sequence) {
+				ip++;
+				continue;
+			}
+			int matchLength = minMatch;
+			while(ip + matchLength < src.length - lastLiterals && src[ref + matchLength] == src[ip + matchLength])
+				matchLength++;
+			op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, matchLength - minMatch);
+			ip += matchLength;
+			anchor = ip;
+		}
+		int literals = src.length - anchor;
+		int token = op++;
+		if(literals >= 15) {
+			dst[token] = (byte)0xF0;
+			op = writeLength(dst, op, literals - 15);
+		} else {
+			dst[token] = (byte)(literals << 4);
+		}
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+		return java.util.Arrays.copyOf(dst, op);
+	}
+
+	private static int writeSequence(byte[] src, int anchor, int literals, byte[] dst, int op, int distance, int matchLength) {
+		int token = op++;
+		int t = (Math.min(literals, 15) << 4) | Math.min(matchLength, 15);
+		if(literals >= 15)
+			op = writeLength(dst, op, literals - 15);
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+		dst[op++] = (byte)distance;
+		dst[op++] = (byte)(distance >>> 8);
+		if(matchLength >= 15)
+			op = writeLength(dst, op, matchLength - 15);
+		dst[token] = (byte)t;
+		return op;
+	}
+
+	private static int writeLength(byte[] dst, int op, int length) {
+		while(length >= 255) {
+			dst[op++] = (byte)255;
+			length -= 255;
+		}
+		dst[op++] = (byte)length;
+		return op;
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+
+	private static void putShort(byte[] b, int i, int v) {
+		b[i] = (byte)v;
+		b[i + 1] = (byte)(v >>> 8);
+	}
+
+	private static void putInt(byte[] b, int i, int v) {
+		putShort(b, i, v);
+		putShort(b, i + 2, v >>> 16);
+	}
+
+	private static void writeShort(OutputStream out, int v) throws IOException {
+		out.write(v);
+		out.write(v >>> 8);
+	}
+
+	private static void writeInt(OutputStream out, int v) throws IOException {
+		writeShort(out, v);
+		writeShort(out, v >>> 16);
+	}
+
+	private static void writeLong(OutputStream out, long v) throws IOException {
+		writeInt(out, (int)v);
+		writeInt(out, (int)(v >>> 32));
+	}
+}